@@ -41,11 +41,26 @@ DROP TABLE IF EXISTS `vertices`;
 CREATE TABLE `vertices` (
   `vid` bigint(20) NOT NULL DEFAULT '0',
   `partial_degree` int(11) DEFAULT NULL,
--- Based on the number of partitions this set need to be increased.
-  `partitions` set('0','1','2','3') DEFAULT NULL,
+-- Bit i is set if partition i (0 <= i < 64) has a replica of the vertex.
+  `partitions` bigint(20) unsigned NOT NULL DEFAULT '0',
   PRIMARY KEY (`vid`)
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1;
 /*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `vertex_partition`
+--
+
+DROP TABLE IF EXISTS `vertex_partition`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+-- Replicas in the partitions 64 and upwards, one row per replica.
+CREATE TABLE `vertex_partition` (
+  `vid` bigint(20) NOT NULL DEFAULT '0',
+  `pid` int(11) NOT NULL DEFAULT '0',
+  PRIMARY KEY (`vid`,`pid`)
+) ENGINE=InnoDB DEFAULT CHARSET=latin1;
+/*!40101 SET character_set_client = @saved_cs_client */;
 /*!40103 SET TIME_ZONE=@OLD_TIME_ZONE */;
 
 /*!40101 SET SQL_MODE=@OLD_SQL_MODE */;
@@ -3,12 +3,15 @@ package se.kth.scs;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.sql.SQLException;
 import java.util.Arrays;
-import java.util.LinkedHashSet;
-import java.util.LinkedList;
-import se.kth.scs.partitioning.Edge;
 import se.kth.scs.partitioning.PartitionState;
+import se.kth.scs.partitioning.WindowScheduler;
+import se.kth.scs.partitioning.policy.Adwise;
+import se.kth.scs.partitioning.policy.Dbh;
+import se.kth.scs.partitioning.policy.Grid;
+import se.kth.scs.partitioning.policy.Hash;
 import se.kth.scs.partitioning.policy.Hdrf;
 import se.kth.scs.partitioning.policy.Greedy;
 import se.kth.scs.partitioning.policy.PartitionSelectionPolicy;
@@ -17,6 +20,7 @@ import se.kth.scs.partitioning.hovercut.HovercutMysqlState;
 import se.kth.scs.partitioning.hovercut.HovercutPartitioner;
 import se.kth.scs.partitioning.hovercut.HovercutRemoteState;
 import se.kth.scs.utils.EdgeFileReader;
+import se.kth.scs.utils.EdgeQueue;
 import se.kth.scs.utils.OutputManager;
 import se.kth.scs.utils.PartitionerInputCommands;
 import se.kth.scs.utils.PartitionerSettings;
@@ -31,6 +35,8 @@ import se.kth.scs.utils.PartitionsStatistics;
 public class GraphPartitioner {
 
   private static final OutputManager output = new OutputManager();
+  // Number of windows per subpartitioner that can wait in the queue in the streaming mode.
+  private static final int STREAM_QUEUE_CAPACITY = 2;
 
   public static void main(String[] args) throws SQLException, IOException, Exception {
     PartitionerInputCommands commands = new PartitionerInputCommands();
@@ -55,32 +61,47 @@ public class GraphPartitioner {
     PartitionerSettings settings = new PartitionerSettings();
     settings.setSettings(commands);
 
-    System.out.println(String.format("Reading file %s", settings.file));
-    long start = System.currentTimeMillis();
-    long seed = start;
-    EdgeFileReader reader = new EdgeFileReader(settings.delimiter);
-    LinkedHashSet<Edge>[] splits = reader.readSplitFile(settings.file, 1, settings.shuffle, seed);
-    System.out.println(String.format("Finished reading in %d seconds.", (System.currentTimeMillis() - start) / 1000));
+    long start;
+    long seed = System.currentTimeMillis();
+    EdgeFileReader reader = new EdgeFileReader(settings.delimiter, settings.readers);
+    long[][] splits = null;
+    if (settings.streaming) {
+      if (settings.exactDegree || settings.rs > 0 || settings.window <= 0) {
+        throw new ParameterException("Streaming needs a positive window size and supports neither exact degree nor restreaming.");
+      }
+    } else {
+      System.out.println(String.format("Reading file %s", settings.file));
+      start = System.currentTimeMillis();
+      splits = reader.readSplitFile(settings.file, 1, settings.shuffle, seed);
+      System.out.println(String.format("Finished reading in %d seconds.", (System.currentTimeMillis() - start) / 1000));
 
-    System.out.println(String.format("Re-splitting file %s", settings.file));
-    start = System.currentTimeMillis();
-    splits = EdgeFileReader.resplit(splits, settings.tasks, reader.getnEdges());
-    int nEdges = reader.getnEdges();
-    int nVertices = reader.getnVertices();
-    System.out.println(String.format("Finished resplitting in %d seconds.", (System.currentTimeMillis() - start) / 1000));
-    if (settings.window <= 0) {
-      settings.window = nEdges / settings.tasks;
+      System.out.println(String.format("Re-splitting file %s", settings.file));
+      start = System.currentTimeMillis();
+      splits = EdgeFileReader.resplit(splits, settings.tasks, reader.getnEdges());
+      System.out.println(String.format("Finished resplitting in %d seconds.", (System.currentTimeMillis() - start) / 1000));
+      if (settings.window <= 0) {
+        settings.window = reader.getnEdges() / settings.tasks;
+      }
     }
     OutputManager.printCommandSetup(settings);
     start = System.currentTimeMillis();
-    PartitionState state = runPartitioner(settings, splits, nVertices);
+    PartitionState state;
+    if (settings.streaming) {
+      state = runStreamingPartitioner(settings, reader);
+    } else {
+      state = runPartitioner(settings, splits, reader.getnVertices());
+    }
+    int nVertices = reader.getnVertices();
     float duration = (float) (System.currentTimeMillis() - start) / (float) 1000;
-    PartitionsStatistics ps = new PartitionsStatistics(state, nVertices);
+    PartitionsStatistics ps = new PartitionsStatistics(state);
     String message = null;
-    if (settings.algorithm.equalsIgnoreCase(PartitionerInputCommands.HDRF)) {
+    if (settings.algorithm.equalsIgnoreCase(PartitionerInputCommands.HDRF)
+      || settings.algorithm.equalsIgnoreCase(PartitionerInputCommands.ADWISE)) {
       message = String.format("HoVerCut %s, lambda=%f\tepsilon=%f", settings.algorithm, settings.lambda, settings.epsilon);
     } else if (settings.algorithm.equalsIgnoreCase(PartitionerInputCommands.GREEDY)) {
       message = String.format("HoVerCut %s, epsilon=%f", settings.algorithm, settings.epsilon);
+    } else {
+      message = String.format("HoVerCut %s", settings.algorithm);
     }
     OutputManager.printResults(settings.k, ps, message);
     if (ps.getNVertices() != nVertices) {
@@ -88,6 +109,7 @@ public class GraphPartitioner {
       throw new Exception(String.format("Inconsistent number of vertices file=%d\tstorage=%d.", nVertices, ps.getNVertices()));
     }
     state.releaseResources(true);
+    state.releaseTaskResources();
 
     PartitioningResult result = new PartitioningResult(
       ps.replicationFactor(),
@@ -101,52 +123,121 @@ public class GraphPartitioner {
     output.addResult(result);
   }
 
-  private static PartitionState runPartitioner(PartitionerSettings settings, LinkedHashSet<Edge>[] splits, int nVertices) throws SQLException, IOException, Exception {
-    PartitionState state = null;
-    if (settings.exactDegree) {
-      System.out.println("Starts exact degree computation...");
-      long edStart = System.currentTimeMillis();
-      state = prepareState(settings, null, false);
-      HovercutPartitioner.computeExactDegrees(state, splits);
-      //TODO: This should be removed.
-      state.waitForAllUpdates(nVertices);
-      state.releaseTaskResources();
-      long exactDegreeTime = (int) ((System.currentTimeMillis() - edStart) / 1000);
-      System.out.println(String.format("******** Exact degree computation finished in %d seconds **********", exactDegreeTime));
-    }
-    boolean exactDegree = settings.exactDegree;
-    PartitionSelectionPolicy heuristic = buildHeuristic(settings);
-    LinkedList<Edge> partitionSortedEdges = null;
-    for (int i = 0; i <= settings.rs; i++) {
-      state = prepareState(settings, state, exactDegree);
-      if (partitionSortedEdges != null) // if it's not the first round.
-      {
-        splits = assignEdgesToSubpartitioners(partitionSortedEdges, splits.length, splits[0].size());
+  private static PartitionState runPartitioner(PartitionerSettings settings, long[][] splits, int nVertices) throws SQLException, IOException, Exception {
+    PartitionState state = prepareState(settings, null, false, nVertices);
+    // The workers and their connections to the state serve all the rounds.
+    try (HovercutPartitioner partitioner = newPartitioner(settings, state, splits.length)) {
+      if (settings.exactDegree) {
+        System.out.println("Starts exact degree computation...");
+        long edStart = System.currentTimeMillis();
+        partitioner.computeExactDegrees(new WindowScheduler(splits).sources());
+        state.waitForAllUpdates();
+        long exactDegreeTime = (int) ((System.currentTimeMillis() - edStart) / 1000);
+        System.out.println(String.format("******** Exact degree computation finished in %d seconds **********", exactDegreeTime));
       }
+      boolean exactDegree = settings.exactDegree;
+      PartitionSelectionPolicy heuristic = buildHeuristic(settings);
+      long[] partitionSortedEdges = null;
+      for (int i = 0; i <= settings.rs; i++) {
+        if (i > 0 || exactDegree) {
+          state = prepareState(settings, state, exactDegree, nVertices);
+        }
+        if (partitionSortedEdges != null) // if it's not the first round.
+        {
+          splits = assignEdgesToSubpartitioners(partitionSortedEdges, splits.length, splits[0].length);
+        }
+
+        partitionSortedEdges = partitioner.partitionWithWindow(
+          new WindowScheduler(splits).sources(),
+          heuristic,
+          settings.window,
+          settings.frequency,
+          exactDegree,
+          i < settings.rs,
+          i == settings.rs ? settings.edgeOutput : null, // Only the last round is kept.
+          settings.edgeFormat);
+        state.waitForAllUpdates();
+      }
+    }
+    return state;
+  }
+
+  private static HovercutPartitioner newPartitioner(PartitionerSettings settings, PartitionState state, int nTasks) {
+    HovercutPartitioner partitioner = new HovercutPartitioner(state, nTasks, settings.pipeline);
+    if (settings.maxWindow > 0) {
+      partitioner.adaptWindows(settings.minWindow, settings.maxWindow, settings.conflicts);
+    }
+    if (settings.drift > 0) {
+      partitioner.refreshPartitions(settings.drift);
+    }
+    if (settings.writeBehind > 0) {
+      partitioner.bufferVertexWrites(settings.writeBehind, settings.staleness);
+    }
+    if (settings.cache > 0) {
+      partitioner.cacheVertices(settings.cache, settings.cacheStaleness, settings.cachePolicy);
+    }
+    return partitioner;
+  }
 
-      partitionSortedEdges = HovercutPartitioner.partitionWithWindow(
-        state,
-        splits,
-        heuristic,
+  /**
+   * Partitions the edges while they are read from the file. The reader feeds
+   * bounded queues of the subpartitioners, so the edges are never materialized.
+   */
+  private static PartitionState runStreamingPartitioner(final PartitionerSettings settings, final EdgeFileReader reader) throws Exception {
+    final EdgeQueue queue = new EdgeQueue(STREAM_QUEUE_CAPACITY * settings.tasks);
+    Thread readerThread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        reader.stream(settings.file, queue, settings.window);
+      }
+    });
+    System.out.println(String.format("Streaming file %s", settings.file));
+    PartitionState state = prepareState(settings, null, false, 0);
+    readerThread.start();
+    try (HovercutPartitioner partitioner = newPartitioner(settings, state, settings.tasks)) {
+      partitioner.partitionWithWindow(
+        queue.consumers(settings.tasks),
+        buildHeuristic(settings),
         settings.window,
         settings.frequency,
-        exactDegree);
-      if (exactDegree == false) {
-        state.waitForAllUpdates(nVertices);
-        state.releaseTaskResources();
-      }
+        false,
+        false,
+        settings.edgeOutput,
+        settings.edgeFormat);
+    } catch (RuntimeException ex) {
+      // Stops the reader, that may be blocked on the full queue.
+      queue.abort();
+      throw ex;
     }
+    readerThread.join();
+    state.waitForAllUpdates();
     return state;
   }
 
-  private static PartitionState prepareState(PartitionerSettings settings, PartitionState state, boolean exactDegree) throws SQLException, IOException {
+  /**
+   * Creates the state, or clears it for the next round. The same state is
+   * kept for all the rounds, with the connections of the workers.
+   *
+   * @param state Null to create the state.
+   * @param exactDegree If it's true, the partial degree of the vertices are
+   * kept when the state is cleared.
+   * @param expectedVertices Number of vertices if it is known, otherwise zero,
+   * and the expected number in the settings is used.
+   */
+  private static PartitionState prepareState(PartitionerSettings settings, PartitionState state, boolean exactDegree, int expectedVertices) throws SQLException, IOException {
+    if (state != null) {
+      state.releaseResources(!exactDegree);
+      return state;
+    }
     switch (settings.storage) {
       case PartitionerInputCommands.IN_MEMORY:
-        if (state == null || !exactDegree) {
-          state = new HovercutInMemoryState(settings.k);
-        } else {
-          state.releaseResources(false);
+        if (expectedVertices <= 0) {
+          expectedVertices = settings.vertices;
         }
+        state = expectedVertices > 0
+          ? new HovercutInMemoryState(settings.k, expectedVertices)
+          : new HovercutInMemoryState(settings.k);
         break;
       case PartitionerInputCommands.MYSQL:
         state = new HovercutMysqlState(
@@ -157,8 +248,21 @@ public class GraphPartitioner {
           settings.reset);
         break;
       case PartitionerInputCommands.REMOTE:
-        String[] url = settings.dbUrl.split(":");
-        state = new HovercutRemoteState(settings.k, url[0], Integer.valueOf(url[1]), exactDegree);
+        // One address per shard, separated by commas.
+        String[] urls = settings.dbUrl.split(",");
+        InetSocketAddress[] servers = new InetSocketAddress[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+          String[] url = urls[i].trim().split(":");
+          try {
+            if (url.length != 2 || url[0].isEmpty()) {
+              throw new IllegalArgumentException();
+            }
+            servers[i] = InetSocketAddress.createUnresolved(url[0], Integer.parseInt(url[1]));
+          } catch (IllegalArgumentException ex) {
+            throw new ParameterException(String.format("Storage address should be in the format of host:port, not '%s'.", urls[i]));
+          }
+        }
+        state = new HovercutRemoteState(settings.k, servers, exactDegree, settings.compact);
         break;
       default:
         throw new ParameterException("");
@@ -173,6 +277,14 @@ public class GraphPartitioner {
       h = new Hdrf(settings.lambda, settings.epsilon);
     } else if (settings.algorithm.equalsIgnoreCase(PartitionerInputCommands.GREEDY)) {
       h = new Greedy(settings.epsilon);
+    } else if (settings.algorithm.equalsIgnoreCase(PartitionerInputCommands.ADWISE)) {
+      h = new Adwise(new Hdrf(settings.lambda, settings.epsilon));
+    } else if (settings.algorithm.equalsIgnoreCase(PartitionerInputCommands.DBH)) {
+      h = new Dbh();
+    } else if (settings.algorithm.equalsIgnoreCase(PartitionerInputCommands.GRID)) {
+      h = new Grid();
+    } else if (settings.algorithm.equalsIgnoreCase(PartitionerInputCommands.HASH)) {
+      h = new Hash();
     }
 
     return h;
@@ -185,19 +297,12 @@ public class GraphPartitioner {
    * @param splits
    * @return
    */
-  private static LinkedHashSet<Edge>[] assignEdgesToSubpartitioners(LinkedList<Edge> partitionSortedEdges, int nTasks, int size) {
-    LinkedHashSet<Edge>[] newSplits = new LinkedHashSet[nTasks];
-
-//    int counter = 0;
+  private static long[][] assignEdgesToSubpartitioners(long[] partitionSortedEdges, int nTasks, int size) {
+    long[][] newSplits = new long[nTasks][];
     for (int i = 0; i < nTasks; i++) {
-      newSplits[i] = new LinkedHashSet<>();
-      for (int j = 0; j < size; j++) {
-        newSplits[i].add(partitionSortedEdges.poll());
-//        counter++;
-        if (partitionSortedEdges.isEmpty()) {
-          break;
-        }
-      }
+      int from = Math.min(partitionSortedEdges.length, i * size);
+      int to = Math.min(partitionSortedEdges.length, from + size);
+      newSplits[i] = Arrays.copyOfRange(partitionSortedEdges, from, to);
     }
 
     return newSplits;
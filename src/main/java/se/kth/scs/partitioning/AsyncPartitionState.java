@@ -0,0 +1,31 @@
+package se.kth.scs.partitioning;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * A state that can have several reads in flight for the same loader. The
+ * requests are sent when the methods are called, and the futures are
+ * completed as the responses arrive.
+ *
+ * @author Hooman
+ */
+public interface AsyncPartitionState extends PartitionState {
+
+  /**
+   * Asynchronous version of getVertices.
+   *
+   * @param vids
+   * @return
+   */
+  public Future<Map<Integer, Vertex>> getVerticesAsync(Set<Integer> vids);
+
+  /**
+   * Asynchronous version of getAllPartitions.
+   *
+   * @return
+   */
+  public Future<List<Partition>> getAllPartitionsAsync();
+}
@@ -0,0 +1,248 @@
+package se.kth.scs.partitioning;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free table that keeps the global state of the vertices between
+ * multiple loaders. It is an open-addressing table keyed by the vertex ID,
+ * where the partial degree of a vertex is kept in an int slot and its replica
+ * set in a fixed number of long words, sized for the number of partitions.
+ * All of them are updated with CAS. Keys are only added, so a key never moves
+ * once it is set.
+ *
+ * The table does not stop the writers to grow. When a probe sequence does not
+ * find a free slot within a bounded distance, the key goes to a chained table
+ * of twice the size.
+ *
+ * @author Hooman
+ */
+public class ConcurrentVertexTable {
+
+  private static final int EMPTY = 0; // Vertex 0 is kept in its own slot.
+  private static final int MAX_PROBES = 32;
+  private static final int MIN_CAPACITY = 1 << 10;
+  private final int initialCapacity;
+  private final int nWords;
+  private final AtomicInteger size = new AtomicInteger();
+  private volatile Table head;
+  private volatile boolean hasZero;
+  private final Table zero;
+
+  /**
+   * @param expectedSize
+   * @param k number of partitions.
+   */
+  public ConcurrentVertexTable(int expectedSize, int k) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+      capacity <<= 1;
+    }
+    this.initialCapacity = capacity;
+    this.nWords = ReplicaSet.words(k);
+    this.head = new Table(capacity, nWords);
+    this.zero = new Table(1, nWords);
+  }
+
+  private static final class Table {
+
+    final AtomicIntegerArray keys;
+    final AtomicIntegerArray degrees;
+    final AtomicLongArray replicas; // nWords words per slot.
+    final int mask;
+    final int nWords;
+    volatile Table next;
+
+    Table(int capacity, int nWords) {
+      keys = new AtomicIntegerArray(capacity);
+      degrees = new AtomicIntegerArray(capacity);
+      replicas = new AtomicLongArray(capacity * nWords);
+      mask = capacity - 1;
+      this.nWords = nWords;
+    }
+
+    synchronized Table nextTable() {
+      // Only taken when a table overflows, never on the hot path.
+      if (next == null) {
+        next = new Table(Math.min(keys.length() * 2, 1 << 30), nWords);
+      }
+      return next;
+    }
+
+    void add(int i, int degreeDelta, ReplicaSet delta) {
+      if (degreeDelta != 0) {
+        degrees.addAndGet(i, degreeDelta);
+      }
+      int n = Math.min(nWords, delta.nWords());
+      for (int w = 0; w < n; w++) {
+        long bits = delta.word(w);
+        if (bits != 0) {
+          int j = i * nWords + w;
+          long old;
+          do {
+            old = replicas.get(j);
+          } while ((old | bits) != old && !replicas.compareAndSet(j, old, old | bits));
+        }
+      }
+    }
+
+    int read(int i, ReplicaSet into) {
+      for (int w = 0; w < nWords; w++) {
+        into.addWord(w, replicas.get(i * nWords + w));
+      }
+      return degrees.get(i);
+    }
+  }
+
+  static int hash(int key) {
+    key ^= key >>> 16;
+    key *= 0x85ebca6b;
+    key ^= key >>> 13;
+    key *= 0xc2b2ae35;
+    key ^= key >>> 16;
+    return key;
+  }
+
+  /**
+   * Reads the state of a vertex.
+   *
+   * @param vid
+   * @param into The partitions of the vertex are added to this set.
+   * @return the partial degree of the vertex, or -1 if it does not exist.
+   */
+  public int get(int vid, ReplicaSet into) {
+    if (vid == EMPTY) {
+      return hasZero ? zero.read(0, into) : -1;
+    }
+    int h = hash(vid);
+    for (Table t = head; t != null; t = t.next) {
+      int i = h & t.mask;
+      for (int p = 0; p < MAX_PROBES; p++) {
+        int key = t.keys.get(i);
+        if (key == vid) {
+          return t.read(i, into);
+        }
+        if (key == EMPTY) {
+          return -1;
+        }
+        i = (i + 1) & t.mask;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds a degree delta and a set of partitions to the state of a vertex, and
+   * inserts the vertex if it does not exist.
+   *
+   * @param vid
+   * @param degreeDelta
+   * @param partitionsDelta
+   */
+  public void accumulate(int vid, int degreeDelta, ReplicaSet partitionsDelta) {
+    if (vid == EMPTY) {
+      hasZero = true;
+      zero.add(0, degreeDelta, partitionsDelta);
+      return;
+    }
+    int h = hash(vid);
+    Table t = head;
+    while (true) {
+      int i = h & t.mask;
+      for (int p = 0; p < MAX_PROBES; p++) {
+        int key = t.keys.get(i);
+        if (key == EMPTY) {
+          if (t.keys.compareAndSet(i, EMPTY, vid)) {
+            size.incrementAndGet();
+            key = vid;
+          } else {
+            key = t.keys.get(i);
+          }
+        }
+        if (key == vid) {
+          t.add(i, degreeDelta, partitionsDelta);
+          return;
+        }
+        i = (i + 1) & t.mask;
+      }
+      Table next = t.next;
+      t = next != null ? next : t.nextTable();
+    }
+  }
+
+  /**
+   * @return number of vertices.
+   */
+  public int size() {
+    return size.get() + (hasZero ? 1 : 0);
+  }
+
+  /**
+   * @return number of words of a replica set in this table.
+   */
+  public int nWords() {
+    return nWords;
+  }
+
+  /**
+   * Visits all the vertices. It is weakly consistent with concurrent writes.
+   *
+   * @param visitor
+   */
+  public void forEach(Visitor visitor) {
+    ReplicaSet partitions = new ReplicaSet();
+    if (hasZero) {
+      int degree = zero.read(0, partitions);
+      visitor.visit(EMPTY, degree, partitions);
+    }
+    for (Table t = head; t != null; t = t.next) {
+      for (int i = 0; i < t.keys.length(); i++) {
+        int key = t.keys.get(i);
+        if (key != EMPTY) {
+          partitions.clear();
+          int degree = t.read(i, partitions);
+          visitor.visit(key, degree, partitions);
+        }
+      }
+    }
+  }
+
+  /**
+   * Clears partitions of all the vertices. Not thread-safe.
+   */
+  public void resetPartitions() {
+    clearReplicas(zero);
+    for (Table t = head; t != null; t = t.next) {
+      clearReplicas(t);
+    }
+  }
+
+  private static void clearReplicas(Table t) {
+    for (int i = 0; i < t.replicas.length(); i++) {
+      t.replicas.set(i, 0);
+    }
+  }
+
+  /**
+   * Removes all the vertices. Not thread-safe.
+   */
+  public void clear() {
+    head = new Table(initialCapacity, nWords);
+    hasZero = false;
+    zero.degrees.set(0, 0);
+    clearReplicas(zero);
+    size.set(0);
+  }
+
+  public interface Visitor {
+
+    /**
+     * @param vid
+     * @param pDegree
+     * @param partitions It is reused between the calls and must be copied to
+     * be kept.
+     */
+    public void visit(int vid, int pDegree, ReplicaSet partitions);
+  }
+}
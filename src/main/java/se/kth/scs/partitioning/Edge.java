@@ -1,7 +1,10 @@
 package se.kth.scs.partitioning;
 
 /**
- * The implementation of a graph edge.
+ * The implementation of a graph edge. In the partitioning pipeline an edge is
+ * carried as a canonical packed long, with the smaller vertex ID in the high
+ * half and the larger one in the low half, so an undirected edge has one
+ * representation and needs no object.
  *
  * @author Hooman
  */
@@ -29,6 +32,45 @@ public class Edge {
     return dst;
   }
 
+  /**
+   * Packs an edge in its canonical form.
+   *
+   * @param u
+   * @param v
+   * @return
+   */
+  public static long pack(int u, int v) {
+    if (u > v) {
+      int t = u;
+      u = v;
+      v = t;
+    }
+    return ((long) u << 32) | (v & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @param e a packed edge.
+   * @return the smaller vertex ID of the edge.
+   */
+  public static int src(long e) {
+    return (int) (e >>> 32);
+  }
+
+  /**
+   * @param e a packed edge.
+   * @return the larger vertex ID of the edge.
+   */
+  public static int dst(long e) {
+    return (int) e;
+  }
+
+  /**
+   * @return the canonical packed form of this edge.
+   */
+  public long pack() {
+    return pack(src, dst);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -47,7 +89,8 @@ public class Edge {
 
   @Override
   public int hashCode() {
-    return toString().hashCode();
+    long e = pack();
+    return (int) (e ^ (e >>> 32));
   }
 
   @Override
@@ -0,0 +1,20 @@
+package se.kth.scs.partitioning;
+
+/**
+ * A single-pass source of packed edges (see Edge.pack) for a subpartitioner.
+ * It can be backed by a materialized split or by a stream.
+ *
+ * @author Hooman
+ */
+public interface EdgeSource {
+
+  /**
+   * Copies the next edges to a buffer. It may block until edges are available.
+   *
+   * @param buffer
+   * @param offset
+   * @param max Maximum number of edges to copy.
+   * @return number of copied edges, that is zero only at the end of the source.
+   */
+  public int next(long[] buffer, int offset, int max);
+}
@@ -0,0 +1,45 @@
+package se.kth.scs.partitioning;
+
+/**
+ * An edge source over a range of a packed edge array.
+ *
+ * @author Hooman
+ */
+public class EdgeSplit implements EdgeSource {
+
+  private final long[] edges;
+  private final int to;
+  private int position;
+
+  public EdgeSplit(long[] edges) {
+    this(edges, 0, edges.length);
+  }
+
+  public EdgeSplit(long[] edges, int from, int to) {
+    this.edges = edges;
+    this.position = from;
+    this.to = to;
+  }
+
+  @Override
+  public int next(long[] buffer, int offset, int max) {
+    int n = Math.min(max, to - position);
+    System.arraycopy(edges, position, buffer, offset, n);
+    position += n;
+    return n;
+  }
+
+  /**
+   * Wraps each split as a new source.
+   *
+   * @param splits
+   * @return
+   */
+  public static EdgeSource[] of(long[][] splits) {
+    EdgeSource[] sources = new EdgeSource[splits.length];
+    for (int i = 0; i < splits.length; i++) {
+      sources[i] = new EdgeSplit(splits[i]);
+    }
+    return sources;
+  }
+}
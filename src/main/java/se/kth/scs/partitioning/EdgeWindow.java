@@ -0,0 +1,301 @@
+package se.kth.scs.partitioning;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A window of edges and the state of its vertices in primitive arrays, that a
+ * policy allocates in a single call. Every distinct vertex of the window has a
+ * slot, and the edges refer to the slots of their endpoints. The degree and
+ * the replica words of a slot are updated as the edges are assigned, so they
+ * are what the policy would see from the vertices edge by edge.
+ *
+ * The arrays are reused from window to window, so a window of a loader does
+ * not allocate anything once it has grown to its largest size.
+ *
+ * @author Hooman
+ */
+public class EdgeWindow {
+
+  private final int nWords;
+  private final boolean countDegrees;
+  private int size;
+  private int nVertices;
+  private int[] src;
+  private int[] dst;
+  private int[] assignments;
+  private int[] degrees;
+  private long[] replicas; // The words of slot s start at s * nWords.
+  private Vertex[] vertices;
+  // An open-addressing map from vertex ID to slot + 1, where zero is empty.
+  private int[] keys;
+  private int[] slots;
+  private int mask;
+  private PartitionLoads loads;
+  private PartitionState state;
+  private int partitionWindow;
+  private PartitionRefresh refresh;
+  private int assigned;
+
+  /**
+   * @param capacity Expected number of edges in a window.
+   * @param k Number of partitions.
+   * @param countDegrees If the degrees are counted as the edges are assigned,
+   * instead of being exact.
+   */
+  public EdgeWindow(int capacity, int k, boolean countDegrees) {
+    this.nWords = ReplicaSet.words(k);
+    this.countDegrees = countDegrees;
+    allocate(Math.max(1, capacity));
+  }
+
+  /**
+   * @param refresh If it's not null, the partitions are read again during the
+   * allocation when it is due, instead of after every partitionWindow edges.
+   */
+  public void setRefresh(PartitionRefresh refresh) {
+    this.refresh = refresh;
+  }
+
+  private void allocate(int capacity) {
+    src = new int[capacity];
+    dst = new int[capacity];
+    assignments = new int[capacity];
+    degrees = new int[2 * capacity];
+    replicas = new long[2 * capacity * nWords];
+    vertices = new Vertex[2 * capacity];
+    int tableSize = Integer.highestOneBit(4 * capacity - 1) << 1;
+    keys = new int[tableSize];
+    slots = new int[tableSize];
+    mask = tableSize - 1;
+  }
+
+  /**
+   * Loads the edges of a window and the state of their vertices. The missing
+   * vertices are added to the map.
+   *
+   * @param edges
+   * @param size
+   * @param vertexMap The vertices of the window that are read from the state.
+   * @param partitions
+   * @param state To write and read the partitions during the allocation.
+   * @param partitionWindow Number of edges after which the partitions are
+   * written and read again.
+   */
+  public void load(
+    long[] edges,
+    int size,
+    Map<Integer, Vertex> vertexMap,
+    List<Partition> partitions,
+    PartitionState state,
+    int partitionWindow) {
+    clear();
+    if (size > src.length) {
+      allocate(size);
+    }
+    this.size = size;
+    for (int i = 0; i < size; i++) {
+      src[i] = slot(Edge.src(edges[i]), vertexMap);
+      dst[i] = slot(Edge.dst(edges[i]), vertexMap);
+      assignments[i] = -1;
+    }
+    this.loads = new PartitionLoads(partitions);
+    this.state = state;
+    this.partitionWindow = partitionWindow;
+    this.assigned = 0;
+  }
+
+  private int slot(int vid, Map<Integer, Vertex> vertexMap) {
+    int i = hash(vid) & mask;
+    while (slots[i] != 0) {
+      if (keys[i] == vid) {
+        return slots[i] - 1;
+      }
+      i = (i + 1) & mask;
+    }
+    int s = nVertices++;
+    keys[i] = vid;
+    slots[i] = s + 1;
+    Vertex v = vertexMap.get(vid);
+    if (v == null) {
+      v = new Vertex(vid);
+      vertexMap.put(vid, v);
+    }
+    vertices[s] = v;
+    degrees[s] = v.getpDegree();
+    for (int w = 0; w < nWords; w++) {
+      replicas[s * nWords + w] = v.partitionsWord(w);
+    }
+    return s;
+  }
+
+  private static int hash(int key) {
+    key ^= key >>> 16;
+    key *= 0x85ebca6b;
+    key ^= key >>> 13;
+    return key;
+  }
+
+  private void clear() {
+    for (int s = 0; s < nVertices; s++) {
+      int i = hash(vertices[s].getId()) & mask;
+      while (slots[i] != 0) {
+        slots[i] = 0;
+        i = (i + 1) & mask;
+      }
+      vertices[s] = null;
+    }
+    nVertices = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return number of distinct vertices, whose slots are from zero to this
+   * number.
+   */
+  public int nVertices() {
+    return nVertices;
+  }
+
+  /**
+   * @return true if begin counts the edges in the degrees.
+   */
+  public boolean countsDegrees() {
+    return countDegrees;
+  }
+
+  /**
+   * @param i
+   * @return slot of the source of an edge.
+   */
+  public int src(int i) {
+    return src[i];
+  }
+
+  /**
+   * @param i
+   * @return slot of the destination of an edge.
+   */
+  public int dst(int i) {
+    return dst[i];
+  }
+
+  /**
+   * @param slot
+   * @return ID of the vertex in a slot.
+   */
+  public int vertexId(int slot) {
+    return vertices[slot].getId();
+  }
+
+  public int degree(int slot) {
+    return degrees[slot];
+  }
+
+  public boolean hasReplica(int slot, int pid) {
+    return ((replicas[slot * nWords + (pid >>> 6)] >>> pid) & 1) == 1;
+  }
+
+  /**
+   * Iterates over the replicas of a slot.
+   *
+   * @param slot
+   * @param from
+   * @return the first partition that is equal or greater than from, or -1 if
+   * there is none.
+   */
+  public int nextReplica(int slot, int from) {
+    int w = from >>> 6;
+    if (w >= nWords) {
+      return -1;
+    }
+    int base = slot * nWords;
+    long bits = replicas[base + w] & (-1L << from);
+    while (bits == 0) {
+      if (++w == nWords) {
+        return -1;
+      }
+      bits = replicas[base + w];
+    }
+    return (w << 6) + Long.numberOfTrailingZeros(bits);
+  }
+
+  /**
+   * @return the current partitions, that can change after every assignment.
+   */
+  public PartitionLoads loads() {
+    return loads;
+  }
+
+  /**
+   * Counts an edge in the degrees of its endpoints, if the degrees are not
+   * exact. It is called before an edge is scored.
+   *
+   * @param i
+   */
+  public void begin(int i) {
+    if (countDegrees) {
+      degrees[src[i]]++;
+      degrees[dst[i]]++;
+    }
+  }
+
+  /**
+   * Assigns an edge to the partition at a position of the current partitions.
+   *
+   * @param i
+   * @param position
+   */
+  public void assign(int i, int position) {
+    int pid = loads.id(position);
+    assignments[i] = pid;
+    replicas[src[i] * nWords + (pid >>> 6)] |= 1L << pid;
+    replicas[dst[i] * nWords + (pid >>> 6)] |= 1L << pid;
+    loads.incrementAt(position);
+    assigned++;
+    if (refresh != null) {
+      refresh.assigned();
+      if (assigned < size && refresh.due(loads)) {
+        readLoads();
+      }
+    } else if (assigned % partitionWindow == 0 && assigned < size) {
+      readLoads();
+    }
+  }
+
+  private void readLoads() {
+    state.putPartitions(loads);
+    loads = new PartitionLoads(state.getAllPartitions());
+    if (refresh != null) {
+      refresh.refreshed(loads);
+    }
+  }
+
+  /**
+   * @param i
+   * @return the partition of an edge, or -1 if it is not assigned.
+   */
+  public int assignment(int i) {
+    return assignments[i];
+  }
+
+  /**
+   * Adds the assignments to the vertices of the window, in the order of the
+   * edges.
+   */
+  public void apply() {
+    for (int i = 0; i < size; i++) {
+      Vertex u = vertices[src[i]];
+      Vertex v = vertices[dst[i]];
+      if (countDegrees) {
+        u.incrementDegree();
+        v.incrementDegree();
+      }
+      u.addPartition((short) assignments[i]);
+      v.addPartition((short) assignments[i]);
+    }
+  }
+}
@@ -1,7 +1,8 @@
 package se.kth.scs.partitioning;
 
 /**
- * This class is used to keep local state of a partition in a loader.
+ * This class is used to keep local state of a partition in a loader. Its edge
+ * size is an int, so a partition holds at most Integer.MAX_VALUE edges.
  *
  * @author Hooman
  */
@@ -0,0 +1,169 @@
+package se.kth.scs.partitioning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The edge sizes of the partitions, shared between multiple loaders. Each
+ * size is split into stripes, and a loader only adds to the stripe of its
+ * thread, so loaders that put their partitions at the same time do not fight
+ * over the same cache line. The stripes of a partition are summed when its
+ * size is read.
+ *
+ * The counters of a stripe are contiguous and padded to whole cache lines, so
+ * a putPartitions of a loader touches only the lines of its stripe. The
+ * counters are 64-bit, so the total of the sizes does not overflow, but the
+ * size of a single partition is an int in Partition, in the remote protocol and
+ * in the edge_size column of MySQL. A size that is read saturates at
+ * Integer.MAX_VALUE edges.
+ *
+ * A read is not atomic across the stripes. It sees every add that finished
+ * before it started and may see some of the concurrent ones, which is enough
+ * for the balance score.
+ *
+ * @author Hooman
+ */
+public class PartitionCounters {
+
+  private static final int LINE = 8; // Longs in a cache line.
+  private static final int MAX_STRIPES = 64;
+  private final int k;
+  private final int stride; // Longs between the stripes.
+  private final int mask;
+  private final AtomicLongArray counters;
+
+  public PartitionCounters(int k) {
+    this(k, Runtime.getRuntime().availableProcessors() * 2);
+  }
+
+  /**
+   * @param k number of partitions.
+   * @param stripes It is rounded up to a power of two.
+   */
+  public PartitionCounters(int k, int stripes) {
+    int n = 1;
+    while (n < stripes && n < MAX_STRIPES) {
+      n <<= 1;
+    }
+    this.k = k;
+    this.mask = n - 1;
+    // One line of padding in front of the first stripe, as well.
+    this.stride = ((k + LINE - 1) / LINE + 1) * LINE;
+    this.counters = new AtomicLongArray(LINE + n * stride);
+  }
+
+  private int base() {
+    long tid = Thread.currentThread().getId();
+    int h = (int) (tid ^ (tid >>> 32)) * 0x9E3779B9;
+    return LINE + ((h >>> 16) & mask) * stride;
+  }
+
+  public int size() {
+    return k;
+  }
+
+  /**
+   * Adds to the edge size of a partition.
+   *
+   * @param pid
+   * @param delta
+   */
+  public void add(int pid, long delta) {
+    if (delta != 0) {
+      counters.addAndGet(base() + pid, delta);
+    }
+  }
+
+  /**
+   * Adds the edge size deltas of some partitions.
+   *
+   * @param ps
+   */
+  public void addAll(List<Partition> ps) {
+    int b = base();
+    for (Partition p : ps) {
+      int delta = p.getESizeDelta();
+      if (delta != 0) {
+        counters.addAndGet(b + p.getId(), delta);
+      }
+    }
+  }
+
+  /**
+   * @param pid
+   * @return the edge size of a partition.
+   */
+  public long get(int pid) {
+    long sum = 0;
+    for (int i = LINE + pid; i < counters.length(); i += stride) {
+      sum += counters.get(i);
+    }
+    return sum;
+  }
+
+  /**
+   * @return the edge sizes of all the partitions.
+   */
+  public long[] snapshot() {
+    long[] sizes = new long[k];
+    for (int s = LINE; s < counters.length(); s += stride) {
+      for (int pid = 0; pid < k; pid++) {
+        sizes[pid] += counters.get(s + pid);
+      }
+    }
+    return sizes;
+  }
+
+  /**
+   * @return the number of edges in all the partitions.
+   */
+  public long total() {
+    long sum = 0;
+    for (long size : snapshot()) {
+      sum += size;
+    }
+    return sum;
+  }
+
+  /**
+   * @param pid
+   * @return a local copy of a partition.
+   */
+  public Partition partition(short pid) {
+    Partition p = new Partition(pid);
+    p.setESize(toInt(get(pid)));
+    return p;
+  }
+
+  /**
+   * @return local copies of all the partitions.
+   */
+  public List<Partition> partitions() {
+    long[] sizes = snapshot();
+    List<Partition> copy = new ArrayList<>(k);
+    for (short pid = 0; pid < k; pid++) {
+      Partition p = new Partition(pid);
+      p.setESize(toInt(sizes[pid]));
+      copy.add(p);
+    }
+    return copy;
+  }
+
+  public void clear() {
+    for (int i = 0; i < counters.length(); i++) {
+      counters.set(i, 0);
+    }
+  }
+
+  /**
+   * The size of a single partition is kept as an int by the loaders and the
+   * protocols. It saturates instead of wrapping around.
+   *
+   * @param size
+   * @return
+   */
+  public static int toInt(long size) {
+    return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+  }
+}
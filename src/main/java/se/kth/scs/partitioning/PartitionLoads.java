@@ -0,0 +1,210 @@
+package se.kth.scs.partitioning;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A list of partitions of a loader that keeps the minimum and the maximum
+ * edge size up to date while edges are assigned, so a policy does not scan the
+ * partitions for them per edge. It also knows the first least-loaded
+ * partition in the order of the list, which is the best partition when no
+ * replica decides. So a policy whose balance score grows as the load drops
+ * only scores the replicas of the endpoints and that partition, with
+ * bestCandidate.
+ *
+ * The edges must be assigned through increment, not directly on the
+ * partitions. An increment is O(1), amortized over the k assignments that a
+ * minimum takes to move.
+ *
+ * @author Hooman
+ */
+public class PartitionLoads extends AbstractList<Partition> {
+
+  private final Partition[] partitions;
+  private final int[] ids;
+  private final int[] loads;
+  private final int[] positions; // Position of each partition ID in the list, or -1.
+  private int min;
+  private int max;
+  private int firstMin; // Position of the first partition with the minimum load.
+
+  public PartitionLoads(List<Partition> list) {
+    partitions = list.toArray(new Partition[list.size()]);
+    ids = new int[partitions.length];
+    loads = new int[partitions.length];
+    int maxId = -1;
+    for (int i = 0; i < partitions.length; i++) {
+      ids[i] = partitions[i].getId();
+      loads[i] = partitions[i].getESize();
+      maxId = Math.max(maxId, partitions[i].getId());
+    }
+    positions = new int[maxId + 1];
+    Arrays.fill(positions, -1);
+    for (int i = 0; i < partitions.length; i++) {
+      positions[partitions[i].getId()] = i;
+    }
+    max = Integer.MIN_VALUE;
+    for (int load : loads) {
+      max = Math.max(max, load);
+    }
+    findMin();
+  }
+
+  private void findMin() {
+    min = Integer.MAX_VALUE;
+    firstMin = -1;
+    for (int i = 0; i < loads.length; i++) {
+      if (loads[i] < min) {
+        min = loads[i];
+        firstMin = i;
+      }
+    }
+  }
+
+  /**
+   * Assigns an edge to a partition of this list.
+   *
+   * @param p
+   */
+  public void increment(Partition p) {
+    incrementAt(positions[p.getId()]);
+  }
+
+  /**
+   * Assigns an edge to the partition at a position of this list.
+   *
+   * @param i
+   */
+  public void incrementAt(int i) {
+    partitions[i].incrementESize();
+    int load = ++loads[i];
+    if (load > max) {
+      max = load;
+    }
+    if (i == firstMin) {
+      // Partitions before the first minimum have more edges.
+      int next = -1;
+      for (int j = i + 1; j < loads.length; j++) {
+        if (loads[j] == min) {
+          next = j;
+          break;
+        }
+      }
+      if (next >= 0) {
+        firstMin = next;
+      } else {
+        findMin();
+      }
+    }
+  }
+
+  public int minLoad() {
+    return min;
+  }
+
+  public int maxLoad() {
+    return max;
+  }
+
+  /**
+   * @return the first partition in the list with the minimum edge size.
+   */
+  public Partition firstLeastLoaded() {
+    return firstMin < 0 ? null : partitions[firstMin];
+  }
+
+  /**
+   * @return position of the first partition with the minimum edge size, or -1
+   * if the list is empty.
+   */
+  public int firstLeastLoadedPosition() {
+    return firstMin;
+  }
+
+  /**
+   * @param position
+   * @return edge size of the partition at a position.
+   */
+  public int load(int position) {
+    return loads[position];
+  }
+
+  /**
+   * @param position
+   * @return ID of the partition at a position.
+   */
+  public int id(int position) {
+    return ids[position];
+  }
+
+  /**
+   * @param pid
+   * @return position of a partition in the list, or -1 if it's not in the
+   * list.
+   */
+  public int position(int pid) {
+    return pid < positions.length ? positions[pid] : -1;
+  }
+
+  /**
+   * The replicas and the score of the endpoints of an edge, for bestCandidate.
+   */
+  public interface Candidates {
+
+    /**
+     * @param endpoint 0 for the source, 1 for the destination.
+     * @param pid
+     * @return the first partition ID from pid on that has a replica of the
+     * endpoint, or -1.
+     */
+    int nextReplica(int endpoint, int pid);
+
+    /**
+     * @param position
+     * @return the score of the partition at a position.
+     */
+    double score(int position);
+  }
+
+  /**
+   * Scores the partitions that have a replica of an endpoint and the first
+   * least-loaded partition. The ties go to the partition that comes first in
+   * the list, as in a full scan.
+   *
+   * @param c
+   * @return position of the best candidate, or -1 if the list is empty.
+   */
+  public int bestCandidate(Candidates c) {
+    double maxScore = 0;
+    int maxPosition = -1;
+    if (firstMin < 0) {
+      return maxPosition;
+    }
+    for (int round = 0; round < 3; round++) {
+      int pid = round == 2 ? ids[firstMin] : c.nextReplica(round, 0);
+      while (pid >= 0) {
+        int position = position(pid);
+        if (position >= 0) {
+          double score = c.score(position);
+          if (maxPosition < 0 || score > maxScore || (score == maxScore && position < maxPosition)) {
+            maxScore = score;
+            maxPosition = position;
+          }
+        }
+        pid = round == 2 ? -1 : c.nextReplica(round, pid + 1);
+      }
+    }
+    return maxPosition;
+  }
+
+  @Override
+  public Partition get(int index) {
+    return partitions[index];
+  }
+
+  @Override
+  public int size() {
+    return partitions.length;
+  }
+}
@@ -0,0 +1,92 @@
+package se.kth.scs.partitioning;
+
+import java.util.List;
+
+/**
+ * Decides when a loader reads the partition sizes from the state again,
+ * instead of reading them at a fixed rate. Between two reads, the loader knows
+ * its own edges, but not the edges of the other loaders. It estimates them
+ * from the rate at which the others assigned edges, per edge of its own,
+ * between the previous reads. The sizes are read again when the estimated
+ * edges of the others per partition exceed a fraction of the spread between
+ * the largest and the smallest partition, which is what the balance score of
+ * a partition is relative to.
+ *
+ * @author Hooman
+ */
+public class PartitionRefresh {
+
+  private static final double LAST_RATE_WEIGHT = 0.5;
+  private final double drift;
+  private double othersPerEdge = 1; // Until it is measured, the others are as fast as this loader.
+  private long lastTotal = -1;
+  private long own = 0; // Edges assigned by this loader since the last read.
+  private long reads = 0;
+  private long skipped = 0;
+
+  /**
+   * @param drift Fraction of the spread of the partition sizes that the
+   * estimated edges of the others per partition can reach before a read.
+   */
+  public PartitionRefresh(double drift) {
+    this.drift = drift;
+  }
+
+  /**
+   * Counts an edge assigned by this loader.
+   */
+  public void assigned() {
+    own++;
+  }
+
+  /**
+   * @param known The partition sizes known by the loader, with its own edges.
+   * @return true if the partition sizes should be read again.
+   */
+  public boolean due(PartitionLoads known) {
+    if (lastTotal < 0 || known.isEmpty()) {
+      return true;
+    }
+    double others = othersPerEdge * own / known.size();
+    return others > drift * (known.maxLoad() - known.minLoad() + 1);
+  }
+
+  /**
+   * Same as due, and counts a skipped read if it's not.
+   *
+   * @param known
+   * @return
+   */
+  public boolean read(PartitionLoads known) {
+    if (due(known)) {
+      return true;
+    }
+    skipped++;
+    return false;
+  }
+
+  /**
+   * Measures the edges of the others since the last read.
+   *
+   * @param fresh The partition sizes that are read, with all the edges of this
+   * loader.
+   */
+  public void refreshed(List<Partition> fresh) {
+    long total = 0;
+    for (Partition p : fresh) {
+      total += p.getESize();
+    }
+    if (lastTotal >= 0 && own > 0) {
+      double rate = Math.max(0, (double) (total - lastTotal - own) / own);
+      othersPerEdge = LAST_RATE_WEIGHT * rate + (1 - LAST_RATE_WEIGHT) * othersPerEdge;
+    }
+    lastTotal = total;
+    own = 0;
+    reads++;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("reads=%d\tskipped=%d\tothers per edge=%f", reads, skipped, othersPerEdge);
+  }
+}
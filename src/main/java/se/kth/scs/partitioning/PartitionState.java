@@ -27,11 +27,12 @@ public interface PartitionState {
   public void applyState();
   
   /**
-   * 
-   * 
-   * @param expectedSize
+   * Waits until all the updates that the loaders have written before are
+   * applied on the storage. The loaders must have released their task
+   * resources.
+   *
    */
-  public void waitForAllUpdates(int expectedSize); //TODO: This will be removed.
+  public void waitForAllUpdates();
 
   /**
    * This method can be implemented to release all the resources created by the
@@ -48,6 +49,15 @@ public interface PartitionState {
    */
   public void releaseTaskResources();
 
+  /**
+   * This method is called by a loader at the end of a task, to send its
+   * buffered updates and wait until they are applied. Unlike
+   * releaseTaskResources, the resources of the loader are kept for its next
+   * tasks.
+   *
+   */
+  public void flushTaskUpdates();
+
   /**
    * Returns state of a vertex using its unique ID.
    *
@@ -57,13 +67,11 @@ public interface PartitionState {
   public Vertex getVertex(int vid);
 
   /**
-   * Returns the state of all vertices for at least a given number of vertices.
-   *
+   * Returns the state of all vertices, after all the updates are applied.
    *
-   * @param expectedSize
    * @return
    */
-  public Map<Integer, Vertex> getAllVertices(int expectedSize);
+  public Map<Integer, Vertex> getAllVertices();
 
   /**
    * Given a set of ID, returns all the state of all the available vertices in
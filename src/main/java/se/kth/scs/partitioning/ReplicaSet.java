@@ -0,0 +1,202 @@
+package se.kth.scs.partitioning;
+
+import java.util.Arrays;
+
+/**
+ * The set of partitions that hold a replica of a vertex. The first 64
+ * partitions are kept in a single long, so a set for up to 64 partitions does
+ * not allocate anything else. The words for the higher partitions are
+ * allocated only when one of them is added.
+ *
+ * @author Hooman
+ */
+public class ReplicaSet {
+
+  private static final long[] NO_WORDS = new long[0];
+  private long low;
+  private long[] high = NO_WORDS; // Word w of the set is high[w - 1].
+
+  public ReplicaSet() {
+  }
+
+  public ReplicaSet(long low) {
+    this.low = low;
+  }
+
+  /**
+   * @param k number of partitions.
+   * @return number of 64-bit words to keep a set of k partitions.
+   */
+  public static int words(int k) {
+    return Math.max(1, (k + 63) >>> 6);
+  }
+
+  /**
+   * @param p
+   * @return true if the partition did not exist.
+   */
+  public boolean add(int p) {
+    int w = p >>> 6;
+    long bit = 1L << p;
+    if (w == 0) {
+      boolean added = (low & bit) == 0;
+      low |= bit;
+      return added;
+    }
+    if (w > high.length) {
+      high = Arrays.copyOf(high, w);
+    }
+    boolean added = (high[w - 1] & bit) == 0;
+    high[w - 1] |= bit;
+    return added;
+  }
+
+  public boolean contains(int p) {
+    int w = p >>> 6;
+    if (w == 0) {
+      return ((low >>> p) & 1) == 1;
+    }
+    return w <= high.length && ((high[w - 1] >>> p) & 1) == 1;
+  }
+
+  /**
+   * @param w
+   * @return the w-th 64-bit word of the set.
+   */
+  public long word(int w) {
+    if (w == 0) {
+      return low;
+    }
+    return w <= high.length ? high[w - 1] : 0;
+  }
+
+  /**
+   * Adds all the partitions in a word of a set to this set.
+   *
+   * @param w
+   * @param bits
+   */
+  public void addWord(int w, long bits) {
+    if (w == 0) {
+      low |= bits;
+      return;
+    }
+    if (bits == 0) {
+      return;
+    }
+    if (w > high.length) {
+      high = Arrays.copyOf(high, w);
+    }
+    high[w - 1] |= bits;
+  }
+
+  public void addAll(ReplicaSet other) {
+    low |= other.low;
+    for (int w = 1; w <= other.high.length; w++) {
+      addWord(w, other.high[w - 1]);
+    }
+  }
+
+  /**
+   * @return number of words that may have a partition.
+   */
+  public int nWords() {
+    return high.length + 1;
+  }
+
+  /**
+   * @return number of partitions in the set.
+   */
+  public int size() {
+    int n = Long.bitCount(low);
+    for (long bits : high) {
+      n += Long.bitCount(bits);
+    }
+    return n;
+  }
+
+  public boolean isEmpty() {
+    if (low != 0) {
+      return false;
+    }
+    for (long bits : high) {
+      if (bits != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param from
+   * @return the first partition that is equal or greater than from, or -1 if
+   * there is none.
+   */
+  public int nextSetBit(int from) {
+    int w = from >>> 6;
+    int n = nWords();
+    if (w >= n) {
+      return -1;
+    }
+    long bits = word(w) & (-1L << from);
+    while (true) {
+      if (bits != 0) {
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+      }
+      w++;
+      if (w == n) {
+        return -1;
+      }
+      bits = word(w);
+    }
+  }
+
+  public void clear() {
+    low = 0;
+    high = NO_WORDS;
+  }
+
+  public ReplicaSet copy() {
+    ReplicaSet c = new ReplicaSet(low);
+    if (high.length > 0) {
+      c.high = high.clone();
+    }
+    return c;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ReplicaSet)) {
+      return false;
+    }
+    ReplicaSet other = (ReplicaSet) o;
+    int n = Math.max(nWords(), other.nWords());
+    for (int w = 0; w < n; w++) {
+      if (word(w) != other.word(w)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    long h = 0;
+    for (int w = 0; w < nWords(); w++) {
+      h ^= word(w) * (w + 1);
+    }
+    return (int) (h ^ (h >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder("[");
+    for (int p = nextSetBit(0); p >= 0; p = nextSetBit(p + 1)) {
+      if (s.length() > 1) {
+        s.append(", ");
+      }
+      s.append(p);
+    }
+    return s.append(']').toString();
+  }
+}
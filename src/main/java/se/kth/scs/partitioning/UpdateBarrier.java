@@ -0,0 +1,58 @@
+package se.kth.scs.partitioning;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the writers of a state that have updates in progress, so a reader
+ * can wait until all of them are applied. A writer can be a single write of a
+ * loader or a whole session of a client, from its first write to its last.
+ *
+ * Beginning and ending a write is a single atomic operation unless a reader
+ * is waiting.
+ *
+ * @author Hooman
+ */
+public class UpdateBarrier {
+
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Object lock = new Object();
+  private volatile int waiters = 0;
+
+  public void begin() {
+    pending.incrementAndGet();
+  }
+
+  public void end() {
+    if (pending.decrementAndGet() == 0 && waiters > 0) {
+      synchronized (lock) {
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * @return number of writers with updates in progress.
+   */
+  public int pending() {
+    return pending.get();
+  }
+
+  /**
+   * Waits until no writer has any update in progress. The writers that begin
+   * after it returns are not waited for.
+   *
+   * @throws InterruptedException
+   */
+  public void await() throws InterruptedException {
+    synchronized (lock) {
+      waiters++;
+      try {
+        while (pending.get() > 0) {
+          lock.wait();
+        }
+      } finally {
+        waiters--;
+      }
+    }
+  }
+}
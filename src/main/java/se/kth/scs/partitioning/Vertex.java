@@ -8,19 +8,19 @@ package se.kth.scs.partitioning;
  */
 public class Vertex {
 
-  private int partitions;
+  private ReplicaSet partitions;
   private final int id;
   private int pDegree;
   private int degreeDelta = 0;
-  private int partitionsDelta;
+  private final ReplicaSet partitionsDelta = new ReplicaSet();
 
-  public Vertex(int id, int partitions) {
+  public Vertex(int id, ReplicaSet partitions) {
     this.partitions = partitions;
     this.id = id;
   }
 
   public Vertex(int id) {
-    this(id, 0);
+    this(id, new ReplicaSet());
   }
 
   /**
@@ -30,7 +30,7 @@ public class Vertex {
    */
   public boolean addPartition(short p) {
     if (!this.containsPartition(p)) {
-      setPartitionsDelta(partitionsDelta | (1 << p));
+      partitionsDelta.add(p);
       return true;
     }
 
@@ -38,10 +38,12 @@ public class Vertex {
   }
 
   /**
-   * @return the partitions
+   * @return a copy of the partitions, including the new ones.
    */
-  public int getPartitions() {
-    return (partitions | partitionsDelta);
+  public ReplicaSet getPartitions() {
+    ReplicaSet all = partitions.copy();
+    all.addAll(partitionsDelta);
+    return all;
   }
 
   /**
@@ -79,32 +81,69 @@ public class Vertex {
   /**
    * @return the partitionsDelta
    */
-  public int getPartitionsDelta() {
+  public ReplicaSet getPartitionsDelta() {
     return partitionsDelta;
   }
 
-  public boolean containsPartition(short pid) {
-    return (((partitions | partitionsDelta) >> pid) & 1) == 1;
+  /**
+   * Adds the changes of another copy of this vertex, that are not in the state
+   * yet, to what is known about this vertex.
+   *
+   * @param other
+   */
+  public void addKnown(Vertex other) {
+    pDegree += other.degreeDelta;
+    partitions.addAll(other.partitionsDelta);
   }
 
   /**
-   * @param degreeDelta the degreeDelta to set
+   * @param w
+   * @return the w-th 64-bit word of the partitions, including the new ones.
    */
-  public void setDegreeDelta(int degreeDelta) {
-    this.degreeDelta = degreeDelta;
+  public long partitionsWord(int w) {
+    return partitions.word(w) | partitionsDelta.word(w);
+  }
+
+  /**
+   * @param w
+   * @return the w-th 64-bit word of the known partitions, without the new
+   * ones.
+   */
+  public long knownWord(int w) {
+    return partitions.word(w);
   }
 
   /**
-   * @param partitionsDelta the partitionsDelta to set
+   * Iterates over the partitions of the vertex without copying them.
+   *
+   * @param from
+   * @return the first partition that is equal or greater than from, or -1 if
+   * there is none.
    */
-  public void setPartitionsDelta(int partitionsDelta) {
-    this.partitionsDelta = partitionsDelta;
+  public int nextPartition(int from) {
+    int p = partitions.nextSetBit(from);
+    int d = partitionsDelta.nextSetBit(from);
+    if (p < 0 || (d >= 0 && d < p)) {
+      return d;
+    }
+    return p;
+  }
+
+  public boolean containsPartition(short pid) {
+    return partitions.contains(pid) || partitionsDelta.contains(pid);
+  }
+
+  /**
+   * @param degreeDelta the degreeDelta to set
+   */
+  public void setDegreeDelta(int degreeDelta) {
+    this.degreeDelta = degreeDelta;
   }
 
   /**
    * @param partitions the partitions to set
    */
-  public void setPartitions(int partitions) {
+  public void setPartitions(ReplicaSet partitions) {
     this.partitions = partitions;
   }
 }
@@ -0,0 +1,144 @@
+package se.kth.scs.partitioning;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the windows of materialized splits between the subpartitioners
+ * with work stealing. Every subpartitioner owns a split and takes its windows
+ * from the front, in order. When its split is empty, it steals windows from the
+ * back of the split with the most edges left, so the subpartitioners finish a
+ * round at about the same time even if some of them are slower.
+ *
+ * A split is a deque whose front and back are kept in a single long, and a
+ * window is taken with one CAS on it.
+ *
+ * @author Hooman
+ */
+public class WindowScheduler {
+
+  private final long[][] splits;
+  private final AtomicLong[] bounds; // The front in the high and the back in the low int.
+
+  public WindowScheduler(long[][] splits) {
+    this.splits = splits;
+    this.bounds = new AtomicLong[splits.length];
+    for (int i = 0; i < splits.length; i++) {
+      bounds[i] = new AtomicLong(pack(0, splits[i].length));
+    }
+  }
+
+  private static long pack(int front, int back) {
+    return ((long) front << 32) | (back & 0xFFFFFFFFL);
+  }
+
+  private static int front(long b) {
+    return (int) (b >>> 32);
+  }
+
+  private static int back(long b) {
+    return (int) b;
+  }
+
+  /**
+   * @return a source of edges for each split, to be used by its owner.
+   */
+  public EdgeSource[] sources() {
+    EdgeSource[] sources = new EdgeSource[splits.length];
+    for (int i = 0; i < splits.length; i++) {
+      sources[i] = new Source(i);
+    }
+    return sources;
+  }
+
+  /**
+   * @return number of edges of a split that are not taken yet.
+   */
+  public int remaining(int split) {
+    long b = bounds[split].get();
+    return Math.max(0, back(b) - front(b));
+  }
+
+  /**
+   * Takes up to max edges from the front of a split.
+   *
+   * @return position of the first taken edge in the split, or -1 if the split
+   * is empty. The number of taken edges is in taken[0].
+   */
+  private int takeFront(int split, int max, int[] taken) {
+    AtomicLong a = bounds[split];
+    while (true) {
+      long b = a.get();
+      int front = front(b);
+      int back = back(b);
+      if (front >= back) {
+        return -1;
+      }
+      int n = Math.min(max, back - front);
+      if (a.compareAndSet(b, pack(front + n, back))) {
+        taken[0] = n;
+        return front;
+      }
+    }
+  }
+
+  /**
+   * Takes up to max edges from the back of a split.
+   */
+  private int takeBack(int split, int max, int[] taken) {
+    AtomicLong a = bounds[split];
+    while (true) {
+      long b = a.get();
+      int front = front(b);
+      int back = back(b);
+      if (front >= back) {
+        return -1;
+      }
+      int n = Math.min(max, back - front);
+      if (a.compareAndSet(b, pack(front, back - n))) {
+        taken[0] = n;
+        return back - n;
+      }
+    }
+  }
+
+  private class Source implements EdgeSource {
+
+    private final int owner;
+    private final int[] taken = new int[1];
+
+    Source(int owner) {
+      this.owner = owner;
+    }
+
+    @Override
+    public int next(long[] buffer, int offset, int max) {
+      if (max <= 0) {
+        return 0;
+      }
+      int from = takeFront(owner, max, taken);
+      if (from >= 0) {
+        System.arraycopy(splits[owner], from, buffer, offset, taken[0]);
+        return taken[0];
+      }
+      while (true) {
+        int victim = -1;
+        int most = 0;
+        for (int i = 0; i < splits.length; i++) {
+          int r = remaining(i);
+          if (r > most) {
+            most = r;
+            victim = i;
+          }
+        }
+        if (victim < 0) {
+          return 0;
+        }
+        from = takeBack(victim, max, taken);
+        if (from >= 0) {
+          System.arraycopy(splits[victim], from, buffer, offset, taken[0]);
+          return taken[0];
+        }
+      }
+    }
+  }
+}
@@ -1,9 +1,9 @@
 package se.kth.scs.partitioning.hovercut;
 
 import java.util.HashMap;
-import java.util.LinkedHashSet;
 import java.util.Map;
 import se.kth.scs.partitioning.Edge;
+import se.kth.scs.partitioning.EdgeSource;
 import se.kth.scs.partitioning.PartitionState;
 import se.kth.scs.partitioning.Vertex;
 
@@ -14,33 +14,47 @@ import se.kth.scs.partitioning.Vertex;
 public class ExactDegreeTask implements Runnable {
 
   private final PartitionState state;
-  private final LinkedHashSet<Edge> edges;
+  private static final int BUFFER_SIZE = 4096;
+  private final EdgeSource edges;
 
-  public ExactDegreeTask(PartitionState state, LinkedHashSet<Edge> edges) {
+  public ExactDegreeTask(PartitionState state, EdgeSource edges) {
     this.state = state;
     this.edges = edges;
   }
 
   @Override
   public void run() {
+    try {
+      countDegrees();
+    } finally {
+      state.flushTaskUpdates();
+    }
+  }
+
+  private void countDegrees() {
     Map<Integer, Vertex> vertices = new HashMap();
-    for (Edge e : edges) {
-      Vertex u = vertices.get(e.getSrc());
-      Vertex v = vertices.get(e.getDst());
-      if (u == null) {
-        u = new Vertex(e.getSrc());
-        vertices.put(u.getId(), u);
-      }
-      if (v == null) {
-        v = new Vertex(e.getDst());
-        vertices.put(v.getId(), v);
+    long[] buffer = new long[BUFFER_SIZE];
+    int n;
+    while ((n = edges.next(buffer, 0, buffer.length)) > 0) {
+      for (int i = 0; i < n; i++) {
+        int src = Edge.src(buffer[i]);
+        int dst = Edge.dst(buffer[i]);
+        Vertex u = vertices.get(src);
+        Vertex v = vertices.get(dst);
+        if (u == null) {
+          u = new Vertex(src);
+          vertices.put(u.getId(), u);
+        }
+        if (v == null) {
+          v = new Vertex(dst);
+          vertices.put(v.getId(), v);
+        }
+        u.incrementDegree();
+        v.incrementDegree();
       }
-      u.incrementDegree();
-      v.incrementDegree();
     }
 
     state.putVertices(vertices.values());
-    state.releaseTaskResources();
   }
 
 }
@@ -6,32 +6,44 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import se.kth.scs.partitioning.ConcurrentPartition;
-import se.kth.scs.partitioning.ConcurrentVertex;
+import se.kth.scs.partitioning.ConcurrentVertexTable;
 import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionCounters;
 import se.kth.scs.partitioning.PartitionState;
+import se.kth.scs.partitioning.ReplicaSet;
+import se.kth.scs.partitioning.UpdateBarrier;
 import se.kth.scs.partitioning.Vertex;
 
 /**
+ * The shared state of the subpartitioners in a single process. Vertices are
+ * kept in a lock-free primitive table, so reading and writing them neither
+ * allocates per vertex nor takes a lock. Edge sizes of the partitions are kept
+ * in striped counters. The writes in progress are counted, so a reader can
+ * wait for them without polling.
  *
  * @author Hooman
  */
 public class HovercutInMemoryState implements PartitionState {
 
-  private final ConcurrentHashMap<Integer, ConcurrentVertex> vertices = new ConcurrentHashMap<>(); // Holds partial degree of each vertex.
-  private final ConcurrentHashMap<Short, ConcurrentPartition> partitions = new ConcurrentHashMap<>();
+  private static final int DEFAULT_EXPECTED_VERTICES = 1 << 16;
+  private final ConcurrentVertexTable vertices; // Holds partial degree and partitions of each vertex.
+  private final PartitionCounters partitions;
+  private final UpdateBarrier updates = new UpdateBarrier();
   private final short k;
 
   public HovercutInMemoryState(final short k) {
-    this.k = k;
-    initPartitions();
+    this(k, DEFAULT_EXPECTED_VERTICES);
   }
 
-  private void initPartitions() {
-    for (short i = 0; i < k; i++) {
-      partitions.put(i, new ConcurrentPartition(i));
-    }
+  /**
+   * @param k
+   * @param expectedVertices To size the vertex table. The table still grows if
+   * there are more vertices.
+   */
+  public HovercutInMemoryState(final short k, final int expectedVertices) {
+    this.k = k;
+    this.vertices = new ConcurrentVertexTable(expectedVertices, k);
+    this.partitions = new PartitionCounters(k);
   }
 
   @Override
@@ -49,19 +61,19 @@ public class HovercutInMemoryState implements PartitionState {
     if (clearAll) {
       vertices.clear();
     } else {
-      for (ConcurrentVertex v : vertices.values()) {
-        v.resetPartition();
-      }
+      vertices.resetPartitions();
     }
-    initPartitions();
+    partitions.clear();
   }
 
   @Override
   public Vertex getVertex(int vid) {
-    //TODO: a clone should be sent in multi-threaded version.
-    ConcurrentVertex v = vertices.get(vid);
-    if (v != null) {
-      return v.clone();
+    ReplicaSet partitions = new ReplicaSet();
+    int degree = vertices.get(vid, partitions);
+    if (degree != -1) {
+      Vertex v = new Vertex(vid, partitions);
+      v.setpDegree(degree);
+      return v;
     } else {
       return null;
     }
@@ -79,32 +91,30 @@ public class HovercutInMemoryState implements PartitionState {
 
   @Override
   public void putVertex(final Vertex v) {
-    ConcurrentVertex shared = vertices.get(v.getId());
-    if (shared != null) {
-      shared.accumulate(v);
-    } else {
-      final ConcurrentVertex newVertex = new ConcurrentVertex(v.getId(), 0);
-      newVertex.accumulate(v);
-      shared = vertices.putIfAbsent(v.getId(), newVertex);
-      // Double check if the entry does not exist.
-      if (shared != null) {
-        shared.accumulate(v);
-      }
+    updates.begin();
+    try {
+      vertices.accumulate(v.getId(), v.getDegreeDelta(), v.getPartitionsDelta());
+    } finally {
+      updates.end();
     }
   }
 
   @Override
   public void putVertices(final Collection<Vertex> vs) {
-    for (Vertex v : vs) {
-      putVertex(v);
+    updates.begin();
+    try {
+      for (Vertex v : vs) {
+        vertices.accumulate(v.getId(), v.getDegreeDelta(), v.getPartitionsDelta());
+      }
+    } finally {
+      updates.end();
     }
   }
 
   @Override
   public Partition getPartition(short pid) {
-    ConcurrentPartition p = partitions.get(pid);
-    if (p != null) {
-      return p.clone();
+    if (pid >= 0 && pid < k) {
+      return partitions.partition(pid);
     } else {
       return null;
     }
@@ -122,35 +132,17 @@ public class HovercutInMemoryState implements PartitionState {
 
   @Override
   public List<Partition> getAllPartitions() {
-    List<Partition> copy = new ArrayList();
-    for (ConcurrentPartition p : partitions.values()) {
-      copy.add(p.clone());
-    }
-
-    return copy;
+    return partitions.partitions();
   }
 
   @Override
   public void putPartition(final Partition p) {
-    final ConcurrentPartition shared = partitions.get(p.getId());
-//    if (shared != null) {
-    shared.accumulate(p); //It shoudl always exist.
-//    } else {
-//      shared = new ConcurrentPartition(p.getId());
-//      shared.accumulate(p);
-//      shared = partitions.putIfAbsent(p.getId(), shared);
-//      // Double check if the entry does not exist.
-//      if (shared != null) {
-//        shared.accumulate(p);
-//      }
-//    }
+    partitions.add(p.getId(), p.getESizeDelta());
   }
 
   @Override
   public void putPartitions(List<Partition> ps) {
-    for (Partition p : ps) {
-      putPartition(p);
-    }
+    partitions.addAll(ps);
   }
 
   @Override
@@ -159,27 +151,33 @@ public class HovercutInMemoryState implements PartitionState {
   }
 
   @Override
-  public Map<Integer, Vertex> getAllVertices(int expectedSize) {
-    waitForAllUpdates(expectedSize);
-    Map<Integer, Vertex> copy = new HashMap<>();
-    for (ConcurrentVertex v : vertices.values()) {
-      copy.put(v.getId(), v.clone());
-    }
+  public void flushTaskUpdates() {
+    // The updates are applied when they are put.
+  }
+
+  @Override
+  public Map<Integer, Vertex> getAllVertices() {
+    waitForAllUpdates();
+    final Map<Integer, Vertex> copy = new HashMap<>();
+    vertices.forEach(new ConcurrentVertexTable.Visitor() {
+
+      @Override
+      public void visit(int vid, int pDegree, ReplicaSet partitions) {
+        Vertex v = new Vertex(vid, partitions.copy());
+        v.setpDegree(pDegree);
+        copy.put(vid, v);
+      }
+    });
 
     return copy;
   }
 
   @Override
-  public void waitForAllUpdates(int expectedSize) {
-    int count = 1;
-    while (vertices.size() < expectedSize) {
-      try {
-        Thread.sleep(1);
-        System.out.println(String.format("Try number %d failed to collect expected number of vertices.", count));
-      } catch (InterruptedException ex) {
-        ex.printStackTrace();
-      }
-      count++;
+  public void waitForAllUpdates() {
+    try {
+      updates.await();
+    } catch (InterruptedException ex) {
+      ex.printStackTrace();
     }
   }
 
@@ -1,21 +1,28 @@
 package se.kth.scs.partitioning.hovercut;
 
 import com.mysql.jdbc.Connection;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.ReplicaSet;
 import se.kth.scs.partitioning.Vertex;
 
 /**
+ * The first 64 partitions of a vertex are kept as the bits of an unsigned
+ * bigint in the vertices table, and the higher partitions as rows of the
+ * vertex_partition table.
  *
  * @author Hooman
  */
@@ -35,6 +42,7 @@ public class HovercutMySqlQueries {
   public static final String PID = "pid";
   public static final String EDGE_SIZE = "edge_size";
   public static final String PARTIAL_DEGREE = "partial_degree";
+  private static final BigInteger WORD_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
 
   public static Vertex getVertex(int vid, Connection con) throws SQLException {
     String query = String.format("select * from %s where vid=%d", VERTICES, vid);
@@ -43,9 +51,12 @@ public class HovercutMySqlQueries {
     Vertex v = null;
     if (r.next()) {
       int degree = r.getInt(PARTIAL_DEGREE);
-      int partitions = r.getInt(PARTITIONS);
+      ReplicaSet partitions = new ReplicaSet(getWord(r));
       v = new Vertex(vid, partitions);
       v.setpDegree(degree);
+      Map<Integer, ReplicaSet> sets = new HashMap<>();
+      sets.put(vid, partitions);
+      getHighPartitions(sets, String.format(" where vid=%d", vid), con);
     }
 
     return v;
@@ -66,46 +77,66 @@ public class HovercutMySqlQueries {
   }
 
   public static Map<Integer, Vertex> getVertices(Set<Integer> vids, Connection con) throws SQLException {
-    StringBuilder query = new StringBuilder(String.format("select * from %s where ", VERTICES));
+    StringBuilder where = new StringBuilder(" where ");
     int i = 0;
     for (int vid : vids) {
-      query.append(String.format(" vid=%d ", vid));
+      where.append(String.format(" vid=%d ", vid));
       if (i + 1 < vids.size()) {
-        query.append("or");
+        where.append("or");
       }
       i++;
     }
+
+    return getVertices(where.toString(), con);
+  }
+
+  public static Map<Integer, Vertex> getAllVertices(Connection con) throws SQLException {
+    return getVertices("", con);
+  }
+
+  private static Map<Integer, Vertex> getVertices(String where, Connection con) throws SQLException {
+    String query = String.format("select * from %s%s", VERTICES, where);
     Statement s = con.createStatement();
-    ResultSet r = s.executeQuery(query.toString());
+    ResultSet r = s.executeQuery(query);
     Map<Integer, Vertex> vertices = new HashMap();
+    Map<Integer, ReplicaSet> sets = new HashMap<>();
     while (r.next()) {
       int vid = r.getInt(VID);
       int degree = r.getInt(PARTIAL_DEGREE);
-      int partitions = r.getInt(PARTITIONS);
+      ReplicaSet partitions = new ReplicaSet(getWord(r));
       Vertex v = new Vertex(vid, partitions);
       v.setpDegree(degree);
       vertices.put(vid, v);
+      sets.put(vid, partitions);
     }
+    getHighPartitions(sets, where, con);
 
     return vertices;
   }
 
-  public static Map<Integer, Vertex> getAllVertices(Connection con) throws SQLException {
-    String query = String.format("select * from %s", VERTICES);
-
+  /**
+   * Adds the partitions from 64 upwards, that are kept in the vertex_partition
+   * table.
+   */
+  private static void getHighPartitions(Map<Integer, ReplicaSet> sets, String where, Connection con) throws SQLException {
+    String query = String.format("select %s, %s from %s%s", VID, PID, VERTEX_PARTITION, where);
     Statement s = con.createStatement();
     ResultSet r = s.executeQuery(query);
-    Map<Integer, Vertex> vertices = new HashMap();
     while (r.next()) {
-      int vid = r.getInt(VID);
-      int degree = r.getInt(PARTIAL_DEGREE);
-      int partitions = r.getInt(PARTITIONS);
-      Vertex v = new Vertex(vid, partitions);
-      v.setpDegree(degree);
-      vertices.put(vid, v);
+      ReplicaSet partitions = sets.get(r.getInt(VID));
+      if (partitions != null) {
+        partitions.add(r.getInt(PID));
+      }
     }
+  }
 
-    return vertices;
+  private static long getWord(ResultSet r) throws SQLException {
+    BigDecimal word = r.getBigDecimal(PARTITIONS);
+    return word == null ? 0 : word.toBigInteger().longValue();
+  }
+
+  private static BigDecimal toUnsigned(long word) {
+    return new BigDecimal(BigInteger.valueOf(word).and(WORD_MASK));
   }
 
   public static List<Partition> getPartitions(short[] pids, Connection con) throws SQLException {
@@ -152,6 +183,7 @@ public class HovercutMySqlQueries {
     Statement s = con.createStatement();
     int r = s.executeUpdate(query);
     s.closeOnCompletion();
+    putHighPartitions(Collections.singletonList(v), con);
     return r;
   }
 
@@ -166,8 +198,8 @@ public class HovercutMySqlQueries {
   private static String createPutVertexQuery(Vertex v) {
     int vid = v.getId();
     int pDegree = v.getpDegree();
-    String partitions = String.format("%8s", Integer.toBinaryString(v.getPartitions() & 0xFF)).replace(' ', '0');
-    String deltaPartitions = String.format("%8s", Integer.toBinaryString(v.getPartitionsDelta() & 0xFF)).replace(' ', '0');
+    String partitions = Long.toBinaryString(v.getPartitions().word(0));
+    String deltaPartitions = Long.toBinaryString(v.getPartitionsDelta().word(0));
     return String.format("insert into %s (vid, partial_degree, partitions) values (%d, %d, b\'%s\') "
       + "on duplicate key update partial_degree=partial_degree+%d, partitions=partitions | b\'%s\'",
       VERTICES, vid, pDegree, partitions, v.getDegreeDelta(), deltaPartitions);
@@ -180,17 +212,40 @@ public class HovercutMySqlQueries {
     for (Vertex v : vertices) {
       s.setInt(1, v.getId());
       s.setInt(2, v.getpDegree());
-      s.setInt(3, v.getPartitions());
+      s.setBigDecimal(3, toUnsigned(v.getPartitions().word(0)));
       s.setInt(4, v.getDegreeDelta());
-      s.setInt(5, v.getPartitionsDelta());
+      s.setBigDecimal(5, toUnsigned(v.getPartitionsDelta().word(0)));
       s.addBatch();
     }
     int[] r = s.executeBatch();
     s.closeOnCompletion();
+    putHighPartitions(vertices, con);
 
     return r;
   }
 
+  /**
+   * Writes the new partitions from 64 upwards to the vertex_partition table.
+   */
+  private static void putHighPartitions(Collection<Vertex> vertices, Connection con) throws SQLException {
+    PreparedStatement s = null;
+    for (Vertex v : vertices) {
+      ReplicaSet delta = v.getPartitionsDelta();
+      for (int p = delta.nextSetBit(64); p >= 0; p = delta.nextSetBit(p + 1)) {
+        if (s == null) {
+          s = con.prepareStatement(String.format("insert ignore into %s (vid, pid) values (?, ?)", VERTEX_PARTITION));
+        }
+        s.setInt(1, v.getId());
+        s.setInt(2, p);
+        s.addBatch();
+      }
+    }
+    if (s != null) {
+      s.executeBatch();
+      s.closeOnCompletion();
+    }
+  }
+
   public static int[] putPartitions(List<Partition> partitions, Connection con) throws SQLException {
     PreparedStatement s = con.prepareStatement(String.format("insert into %s (pid, edge_size) values (?, ?) "
       + "on duplicate key update edge_size=edge_size+?",
@@ -222,9 +277,26 @@ public class HovercutMySqlQueries {
   public static int[] clearAllTables(Connection con) throws SQLException {
     String truncVertices = String.format("truncate table %s", VERTICES);
     String truncPartitions = String.format("truncate table %s", PARTITIONS);
+    String truncVertexPartition = String.format("truncate table %s", VERTEX_PARTITION);
     Statement s = con.createStatement();
     s.addBatch(truncVertices);
     s.addBatch(truncPartitions);
+    s.addBatch(truncVertexPartition);
+    return s.executeBatch();
+  }
+
+  /**
+   * Clears the partitions of the vertices and the edge sizes, but keeps the
+   * partial degrees.
+   */
+  public static int[] clearPartitions(Connection con) throws SQLException {
+    String resetVertices = String.format("update %s set partitions=0", VERTICES);
+    String truncPartitions = String.format("truncate table %s", PARTITIONS);
+    String truncVertexPartition = String.format("truncate table %s", VERTEX_PARTITION);
+    Statement s = con.createStatement();
+    s.addBatch(resetVertices);
+    s.addBatch(truncPartitions);
+    s.addBatch(truncVertexPartition);
     return s.executeBatch();
   }
 }
@@ -23,6 +23,7 @@ public class HovercutMysqlState implements PartitionState {
   private final String dbUrl;
   private final String dbUser;
   private final String dbPass;
+  private final boolean clearDb;
   private final ThreadLocal<Connection> cons = new ThreadLocal<>();
 
   public HovercutMysqlState(short k, String dbUrl, String dbUser, String dbPass, boolean clearDb) throws SQLException {
@@ -30,21 +31,30 @@ public class HovercutMysqlState implements PartitionState {
     this.dbUrl = dbUrl;
     this.dbUser = dbUser;
     this.dbPass = dbPass;
-    Connection con = createConnection(dbUrl, dbUser, dbPass);
-//        con.setAutoCommit(false);
+    this.clearDb = clearDb;
     if (clearDb) {
-      HovercutMySqlQueries.clearAllTables(con);
-      List<Partition> partitions = new ArrayList<>(k);
-      for (short i = 0; i < k; i++) {
-        Partition p = new Partition(i);
-        partitions.add(p);
-      }
-      HovercutMySqlQueries.putPartitions(partitions, con);
+      Connection con = createConnection(dbUrl, dbUser, dbPass);
+//        con.setAutoCommit(false);
+      clear(con, true);
       con.close();
 //            con.commit();
     }
   }
 
+  private void clear(Connection con, boolean clearAll) throws SQLException {
+    if (clearAll) {
+      HovercutMySqlQueries.clearAllTables(con);
+    } else {
+      HovercutMySqlQueries.clearPartitions(con);
+    }
+    List<Partition> partitions = new ArrayList<>(k);
+    for (short i = 0; i < k; i++) {
+      Partition p = new Partition(i);
+      partitions.add(p);
+    }
+    HovercutMySqlQueries.putPartitions(partitions, con);
+  }
+
   private Connection createConnection(String dbUrl, String dbUser, String dbPass) throws SQLException {
 //        + "cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048&"
 //                        + "useUnbufferedIO=false&useReadAheadInput=false"
@@ -77,10 +87,23 @@ public class HovercutMysqlState implements PartitionState {
     }
   }
 
+  /**
+   * Clears the tables for the next round, if the state was created to clear
+   * them.
+   *
+   * @param clearAll If it's false, it keeps the partial degree of the
+   * vertices.
+   */
   @Override
   public void releaseResources(boolean clearAll) {
-    // TODO: implement clearAll.
-    // No overall resource is used.
+    if (!clearDb) {
+      return;
+    }
+    try {
+      clear(getConnection(), clearAll);
+    } catch (SQLException ex) {
+      ex.printStackTrace();
+    }
   }
 
   @Override
@@ -110,7 +133,7 @@ public class HovercutMysqlState implements PartitionState {
   }
 
   @Override
-  public Map<Integer, Vertex> getAllVertices(int expectedSize) {
+  public Map<Integer, Vertex> getAllVertices() {
     Map<Integer, Vertex> vertices = null;
     try {
       Connection con = getConnection();
@@ -212,7 +235,12 @@ public class HovercutMysqlState implements PartitionState {
   }
 
   @Override
-  public void waitForAllUpdates(int expectedSize) {
-    throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+  public void flushTaskUpdates() {
+    // Every write is committed before the loader continues.
+  }
+
+  @Override
+  public void waitForAllUpdates() {
+    // Every write is committed before the loader continues.
   }
 }
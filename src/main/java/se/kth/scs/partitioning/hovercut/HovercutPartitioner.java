@@ -1,95 +1,279 @@
 package se.kth.scs.partitioning.hovercut;
 
-import java.util.LinkedHashSet;
-import java.util.LinkedList;
-import se.kth.scs.partitioning.Edge;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import se.kth.scs.partitioning.AsyncPartitionState;
+import se.kth.scs.partitioning.EdgeSource;
 import se.kth.scs.partitioning.PartitionState;
 import se.kth.scs.partitioning.policy.PartitionSelectionPolicy;
+import se.kth.scs.utils.LongArrayList;
+import se.kth.scs.utils.PartitionedEdgeWriter;
 
 /**
  * This class is an implementation of HoVerCut(A Horizontally and Vertically scalable streaming graph Vertex-Cut
  * partitioner). To implement HoVerCut we inspire a greedy heuristic from HDRF partitioning algorithm that is published
  * as: Petroni, Fabio, et al. "HDRF: Stream-Based Partitioning for Power-Law Graphs."
  *
+ * A partitioner owns one worker thread per subpartitioner for the whole job. The tasks of every round, including the
+ * restreaming rounds, run on the same workers, so the resources that the state keeps per thread, such as connections,
+ * are created once and released when the partitioner is closed.
+ *
  * @author Hooman
  */
-public class HovercutPartitioner {
+public class HovercutPartitioner implements Closeable {
 
   public static final double DEFAULT_LAMBDA = 1;
   public static final double DEFAULT_EPSILON = 1;
+  private final PartitionState state;
+  private final ExecutorService[] workers;
+  private final PartitionState[] taskStates; // The state as seen by the tasks of each worker.
+  private final int pipelineDepth;
+  private final TaskOptions options;
+
+  /**
+   * @param state
+   * @param nTasks Number of subpartitioners.
+   * @param pipelineDepth Number of windows of a subpartitioner whose state is
+   * in flight.
+   */
+  public HovercutPartitioner(PartitionState state, int nTasks, int pipelineDepth) {
+    this.state = state;
+    this.pipelineDepth = Math.max(1, pipelineDepth);
+    this.workers = new ExecutorService[nTasks];
+    this.taskStates = new PartitionState[nTasks];
+    this.options = new TaskOptions(nTasks);
+    for (int i = 0; i < nTasks; i++) {
+      final String name = String.format("subpartitioner-%d", i);
+      workers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+          return new Thread(r, name);
+        }
+      });
+      taskStates[i] = this.pipelineDepth > 1 && !(state instanceof AsyncPartitionState)
+        ? new PipelinedState(state)
+        : state;
+    }
+  }
+
+  /**
+   * Lets every subpartitioner adapt its window size at runtime, within
+   * [minWindow, maxWindow], starting from the window size of the round. A
+   * subpartitioner keeps the size it reached for the next rounds.
+   *
+   * @param minWindow
+   * @param maxWindow
+   * @param maxConflictRate Target fraction of the vertices shared by two
+   * consecutive windows that are changed by the other subpartitioners in
+   * between.
+   */
+  public void adaptWindows(int minWindow, int maxWindow, double maxConflictRate) {
+    options.minWindow = minWindow;
+    options.maxWindow = maxWindow;
+    options.maxConflictRate = maxConflictRate;
+  }
+
+  /**
+   * Lets every subpartitioner read the partition sizes when the edges that
+   * the others assigned since its last read may have changed the balance,
+   * instead of a fixed number of times per window.
+   *
+   * @param drift Fraction of the spread of the partition sizes that the
+   * estimated edges of the others per partition can reach. Zero reads at the
+   * fixed rate of pUpdateFrequency.
+   */
+  public void refreshPartitions(double drift) {
+    options.refreshDrift = drift;
+  }
+
+  /**
+   * Lets every subpartitioner buffer the changes of its vertices across the
+   * windows and write them behind.
+   *
+   * @param capacity Number of buffered vertices that triggers a write. Zero
+   * writes the vertices after every window.
+   * @param maxAgeMillis How long a change can stay in the buffer, that is how
+   * stale the state can be for the other subpartitioners.
+   */
+  public void bufferVertexWrites(int capacity, long maxAgeMillis) {
+    options.writeBehindCapacity = capacity;
+    options.writeBehindAge = maxAgeMillis;
+  }
+
+  /**
+   * Gives every subpartitioner a cache of the vertices that it reads.
+   *
+   * @param capacity Number of vertices in the cache of a subpartitioner. Zero
+   * reads all the vertices from the state.
+   * @param maxStaleness Number of windows after which a cached vertex is read
+   * again.
+   * @param policy Eviction policy, VertexCache.LRU or VertexCache.FREQUENCY.
+   */
+  public void cacheVertices(int capacity, int maxStaleness, String policy) {
+    options.cacheCapacity = capacity;
+    options.cacheStaleness = maxStaleness;
+    options.cachePolicy = policy;
+  }
 
   /**
    *
-   * @param hState
-   * @param edges
+   * @param edges The edges of each subpartitioner, either materialized or
+   * streamed. There can be at most one source per worker.
    * @param heuristic
    * @param windowSize
    * @param pUpdateFrequency
    * @param exactDegree
-   * @return
+   * @param keepAssignments If it's true, the assigned edges sorted by their
+   * partitions are returned to be restreamed.
+   * @param edgeOutput If it's not null, the directory to write the edges of
+   * each partition.
+   * @param edgeFormat Format of the written edges, text or binary.
+   * @return the edges sorted by their partitions, or null if assignments are
+   * not kept.
+   * @throws IllegalStateException if a subpartitioner fails, after all of them
+   * are done.
    */
-  public static LinkedList<Edge> partitionWithWindow(
-    PartitionState hState, LinkedHashSet<Edge> edges[],
+  public long[] partitionWithWindow(
+    EdgeSource edges[],
     PartitionSelectionPolicy heuristic,
     int windowSize,
     int pUpdateFrequency,
-    boolean exactDegree) {
+    boolean exactDegree,
+    boolean keepAssignments,
+    String edgeOutput,
+    String edgeFormat) {
     System.out.println("Starts partitioning...");
-    int nTasks = edges.length;
+    int nTasks = checkTasks(edges);
+    if (edgeOutput != null) {
+      try {
+        PartitionedEdgeWriter.prepare(edgeOutput);
+      } catch (IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
     Subpartitioner[] tasks = new Subpartitioner[nTasks];
-    Thread[] threads = new Thread[nTasks];
+    TaskParts[] parts = new TaskParts[nTasks];
     for (int i = 0; i < nTasks; i++) {
+      parts[i] = options.parts(
+        i,
+        windowSize,
+        edgeOutput == null ? null : new PartitionedEdgeWriter(edgeOutput, i, state.getNumberOfPartitions(), edgeFormat));
       tasks[i] = new Subpartitioner(
-        hState,
+        taskStates[i],
         edges[i],
         heuristic,
         windowSize,
         pUpdateFrequency,
-        exactDegree);
-      threads[i] = new Thread(tasks[i]);
+        exactDegree,
+        keepAssignments,
+        pipelineDepth,
+        parts[i]);
     }
 
     long start = System.currentTimeMillis();
-    executeThreads(threads);
+    executeTasks(tasks);
     System.out.println(String.format("******** Partitioning finished in %d seconds **********", (System.currentTimeMillis() - start) / 1000));
+    for (int i = 0; i < nTasks; i++) {
+      parts[i].printStatistics(i);
+    }
+    if (!keepAssignments) {
+      return null;
+    }
 
-//    LinkedList<Edge>[][] outputAssignments = new LinkedList[nTasks][hState.getNumberOfPartitions()];
+//    LinkedList<Edge>[][] outputAssignments = new LinkedList[nTasks][state.getNumberOfPartitions()];
 //    for (int i = 0; i < nTasks; i++) {
 //      outputAssignments[i] = tasks[i].getAssignments();
 //    }
-    LinkedList<Edge> outputAssignments = new LinkedList();
-    for (int i = 0; i < hState.getNumberOfPartitions(); i++) {
+    int nEdges = 0;
+    for (Subpartitioner task : tasks) {
+      for (LongArrayList a : task.getAssignments()) {
+        nEdges += a.size();
+      }
+    }
+    LongArrayList outputAssignments = new LongArrayList(nEdges);
+    for (int i = 0; i < state.getNumberOfPartitions(); i++) {
       for (Subpartitioner task : tasks) {
-        outputAssignments.addAll(task.getAssignments()[i]);
-
+        LongArrayList a = task.getAssignments()[i];
+        for (int j = 0; j < a.size(); j++) {
+          outputAssignments.add(a.get(j));
+        }
       }
     }
 //    System.out.println(String.format("******** edges after resplitting %d **********", outputAssignments.size()));
-    return outputAssignments;
+    return outputAssignments.toArray();
   }
 
-  public static void computeExactDegrees(PartitionState hState, LinkedHashSet<Edge> edges[]) {
-    int nTasks = edges.length;
+  public void computeExactDegrees(EdgeSource edges[]) {
+    int nTasks = checkTasks(edges);
     ExactDegreeTask[] tasks = new ExactDegreeTask[nTasks];
-    Thread[] threads = new Thread[nTasks];
     for (int i = 0; i < nTasks; i++) {
-      tasks[i] = new ExactDegreeTask(hState, edges[i]);
-      threads[i] = new Thread(tasks[i]);
+      tasks[i] = new ExactDegreeTask(taskStates[i], edges[i]);
+    }
+    executeTasks(tasks);
+  }
+
+  private int checkTasks(EdgeSource edges[]) {
+    if (edges.length > workers.length) {
+      throw new IllegalArgumentException(String.format("%d sources of edges for %d workers.", edges.length, workers.length));
     }
-    executeThreads(threads);
+    return edges.length;
   }
 
-  private static void executeThreads(Thread[] threads) {
+  private void executeTasks(Runnable[] tasks) {
     System.out.println("Start Running Tasks!");
-    for (Thread t : threads) {
-      t.start();
+    Future<?>[] futures = new Future<?>[tasks.length];
+    for (int i = 0; i < tasks.length; i++) {
+      futures[i] = workers[i].submit(tasks[i]);
     }
 
-    for (Thread t : threads) {
+    // Waits for all the tasks before a failure is thrown.
+    Throwable failure = null;
+    for (Future<?> f : futures) {
+      try {
+        f.get();
+      } catch (ExecutionException ex) {
+        if (failure == null) {
+          failure = ex.getCause();
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for the tasks.", ex);
+      }
+    }
+    if (failure != null) {
+      throw new IllegalStateException("A task failed.", failure);
+    }
+  }
+
+  /**
+   * Releases the resources of the state that belong to each worker, in the
+   * worker, and stops the workers.
+   */
+  @Override
+  public void close() {
+    for (int i = 0; i < workers.length; i++) {
+      final PartitionState taskState = taskStates[i];
+      workers[i].execute(new Runnable() {
+
+        @Override
+        public void run() {
+          taskState.releaseTaskResources();
+        }
+      });
+      workers[i].shutdown();
+    }
+    for (ExecutorService w : workers) {
       try {
-        t.join();
+        w.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
       } catch (InterruptedException ex) {
-        System.out.println(ex.getMessage());
+        ex.printStackTrace();
       }
     }
   }
@@ -1,50 +1,116 @@
 package se.kth.scs.partitioning.hovercut;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import se.kth.scs.partitioning.AsyncPartitionState;
 import se.kth.scs.partitioning.Partition;
 import se.kth.scs.partitioning.PartitionState;
+import se.kth.scs.partitioning.ReplicaSet;
 import se.kth.scs.partitioning.Vertex;
+import se.kth.scs.remote.RemoteClient;
 import se.kth.scs.remote.messages.Protocol;
 import se.kth.scs.remote.messages.Serializer;
 
 /**
  * A thread-safe implementation of a client to access the remote state storage.
+ * Every loader has its own connection, that can carry many outstanding
+ * requests. The writes of a loader are applied on the storage when it
+ * releases its task resources.
+ *
+ * The state can be sharded over several storage servers. A vertex lives on the
+ * server that its hash picks, and a loader has a connection to every server.
+ * The vertices of a request are split by server and sent on all the
+ * connections at once, and the responses are gathered when they are taken.
+ * The partition sizes live on the first server.
+ *
+ * The vertices can be encoded compactly on the wire, with sorted and
+ * delta-coded IDs. Then all the servers must be as recent as this client.
  *
  * @author Hooman
  */
-public class HovercutRemoteState implements PartitionState {
+public class HovercutRemoteState implements AsyncPartitionState {
 
   private final short k;
-  private final String ip;
-  private final int port;
-  private final ThreadLocal<Socket> clients = new ThreadLocal<>();
+  private final int nWords; // Number of words of a replica set on the wire.
+  private final InetSocketAddress[] servers;
+  private final boolean compact;
+  private final ThreadLocal<RemoteClient[]> clients = new ThreadLocal<>();
 
   public HovercutRemoteState(short k, String ip, int port, boolean exactDegree) throws IOException {
+    this(k, new InetSocketAddress[]{InetSocketAddress.createUnresolved(ip, port)}, exactDegree, false);
+  }
+
+  /**
+   * @param k
+   * @param servers The storage servers of the shards.
+   * @param exactDegree
+   * @param compact If the compact encoding of the vertices is negotiated.
+   * @throws IOException
+   */
+  public HovercutRemoteState(short k, InetSocketAddress[] servers, boolean exactDegree, boolean compact) throws IOException {
     this.k = k;
-    this.ip = ip;
-    this.port = port;
-    try (Socket client = new Socket(ip, port)) {
-      DataOutputStream output = new DataOutputStream(client.getOutputStream());
-      if (!exactDegree) {
-        output.writeByte(Protocol.CLEAR_ALL_REQUEST);
-      } else {
-        output.writeByte(Protocol.CLEAR_ALL_BUT_DEGREE_REQUEST);
+    this.nWords = ReplicaSet.words(k);
+    this.servers = servers;
+    this.compact = compact;
+    RemoteClient[] cs = connect();
+    try {
+      clear(cs, !exactDegree);
+    } finally {
+      close(cs);
+    }
+  }
+
+  private RemoteClient[] connect() throws IOException {
+    RemoteClient[] cs = new RemoteClient[servers.length];
+    try {
+      for (int i = 0; i < servers.length; i++) {
+        cs[i] = new RemoteClient(servers[i].getHostString(), servers[i].getPort());
+        if (compact) {
+          cs[i].useCompactEncoding();
+        }
+      }
+    } catch (IOException ex) {
+      close(cs);
+      throw ex;
+    }
+    return cs;
+  }
+
+  private static void close(RemoteClient[] cs) throws IOException {
+    IOException error = null;
+    for (RemoteClient c : cs) {
+      try {
+        if (c != null) {
+          c.close();
+        }
+      } catch (IOException ex) {
+        error = ex;
       }
-      output.flush();
-      output.writeByte(Protocol.CLOSE_SESSION_REQUEST);
-      output.flush();
+    }
+    if (error != null) {
+      throw error;
     }
   }
 
+  /**
+   * @param vid
+   * @return the shard of a vertex.
+   */
+  private int shard(int vid) {
+    int h = vid * 0x9E3779B9;
+    return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % servers.length;
+  }
+
   @Override
   public short getNumberOfPartitions() {
     return k;
@@ -55,24 +121,72 @@ public class HovercutRemoteState implements PartitionState {
     //
   }
 
+  /**
+   * Clears the state on the storage for the next round.
+   *
+   * @param clearAll If it's false, it keeps the partial degree of the
+   * vertices.
+   */
   @Override
   public void releaseResources(boolean clearAll) {
-    //
+    try {
+      clear(getClients(), clearAll);
+    } catch (IOException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private static void clear(RemoteClient[] cs, boolean clearAll) throws IOException {
+    for (RemoteClient c : cs) {
+      c.send(clearAll ? Protocol.CLEAR_ALL_REQUEST : Protocol.CLEAR_ALL_BUT_DEGREE_REQUEST);
+    }
+    // Waits until the state is cleared, otherwise a server may clear it
+    // after the first updates of the loaders on other connections.
+    requestAll(cs, Protocol.WAIT_FOR_ALL_UPDATES_REQUEST);
+  }
+
+  /**
+   * Sends a request to all the servers at once, and waits for all the
+   * responses.
+   */
+  private static int[][] requestAll(RemoteClient[] cs, byte type) throws IOException {
+    List<Future<int[]>> fs = new ArrayList<>(cs.length);
+    for (RemoteClient c : cs) {
+      fs.add(c.request(type));
+    }
+    int[][] responses = new int[cs.length][];
+    try {
+      for (int i = 0; i < cs.length; i++) {
+        responses[i] = fs.get(i).get();
+      }
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new IOException(ex);
+    }
+    return responses;
   }
 
   @Override
   public void releaseTaskResources() {
-    try {
-      Socket c = getClient();
-      DataOutputStream output = new DataOutputStream(c.getOutputStream());
-      output.writeByte(Protocol.CLOSE_SESSION_REQUEST);
-      output.flush();
-      if (!c.isClosed()) {
-        c.close();
-        c = null;
+    RemoteClient[] cs = clients.get();
+    if (cs != null) {
+      try {
+        close(cs);
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+      clients.remove();
+    }
+  }
+
+  @Override
+  public void flushTaskUpdates() {
+    RemoteClient[] cs = clients.get();
+    if (cs != null) {
+      try {
+        requestAll(cs, Protocol.SYNC_REQUEST);
+      } catch (IOException ex) {
+        ex.printStackTrace();
       }
-    } catch (IOException ex) {
-      ex.printStackTrace();
     }
   }
 
@@ -83,10 +197,10 @@ public class HovercutRemoteState implements PartitionState {
 
   private Map<Integer, Vertex> deserializeVertices(int[] r) {
     Map<Integer, Vertex> vertices = new HashMap<>();
-    for (int i = 0; i < r.length; i = i + 3) {
-      Vertex v = new Vertex(r[i]);
+    int stride = Serializer.vertexSize(nWords);
+    for (int i = 0; i < r.length; i = i + stride) {
+      Vertex v = new Vertex(r[i], Serializer.getReplicas(r, i + 2, nWords, new ReplicaSet()));
       v.setpDegree(r[i + 1]);
-      v.setPartitions(r[i + 2]);
       vertices.put(v.getId(), v);
     }
     return vertices;
@@ -94,24 +208,60 @@ public class HovercutRemoteState implements PartitionState {
 
   @Override
   public Map<Integer, Vertex> getVertices(Set<Integer> vids) {
-    Map<Integer, Vertex> vertices = null;
+    return get(getVerticesAsync(vids));
+  }
+
+  @Override
+  public Future<Map<Integer, Vertex>> getVerticesAsync(Set<Integer> vids) {
     try {
-      Socket c = getClient();
-      DataInputStream input = new DataInputStream(c.getInputStream());
-      DataOutputStream output = new DataOutputStream(c.getOutputStream());
-      int[] ids = new int[vids.size()];
-      int i = 0;
+      RemoteClient[] cs = getClients();
+      if (cs.length == 1) {
+        return readVertices(cs[0], toArray(vids));
+      }
+      int[][] ids = new int[cs.length][];
+      int[] n = new int[cs.length];
       for (int v : vids) {
-        ids[i] = v;
-        i++;
+        n[shard(v)]++;
+      }
+      for (int i = 0; i < cs.length; i++) {
+        ids[i] = new int[n[i]];
+        n[i] = 0;
+      }
+      for (int v : vids) {
+        int s = shard(v);
+        ids[s][n[s]++] = v;
+      }
+      List<Future<Map<Integer, Vertex>>> parts = new ArrayList<>(cs.length);
+      for (int i = 0; i < cs.length; i++) {
+        if (ids[i].length > 0) {
+          parts.add(readVertices(cs[i], ids[i]));
+        }
       }
-      Serializer.serializeRequest(output, Protocol.VERTICES_READ_REQUEST, ids);
-      int[] response = Serializer.deserializeRequest(input);
-      vertices = deserializeVertices(response);
+      return new Gathered(parts);
     } catch (IOException ex) {
       ex.printStackTrace();
+      return new Failed<>(ex);
     }
-    return vertices;
+  }
+
+  private Future<Map<Integer, Vertex>> readVertices(RemoteClient c, int[] ids) throws IOException {
+    return new Decoded<Map<Integer, Vertex>>(c.request(Protocol.VERTICES_READ_REQUEST, ids)) {
+
+      @Override
+      Map<Integer, Vertex> decode(int[] r) {
+        return deserializeVertices(r);
+      }
+    };
+  }
+
+  private static int[] toArray(Set<Integer> vids) {
+    int[] ids = new int[vids.size()];
+    int i = 0;
+    for (int v : vids) {
+      ids[i] = v;
+      i++;
+    }
+    return ids;
   }
 
   @Override
@@ -122,17 +272,34 @@ public class HovercutRemoteState implements PartitionState {
   @Override
   public void putVertices(Collection<Vertex> vs) {
     try {
-      Socket c = getClient();
-      DataOutputStream output = new DataOutputStream(c.getOutputStream());
-      int[] vertices = new int[vs.size() * 3];
-      int i = 0;
+      RemoteClient[] cs = getClients();
+      int stride = Serializer.vertexSize(nWords);
+      int[] n = new int[cs.length];
+      if (cs.length == 1) {
+        n[0] = vs.size();
+      } else {
+        for (Vertex v : vs) {
+          n[shard(v.getId())]++;
+        }
+      }
+      int[][] vertices = new int[cs.length][];
+      for (int s = 0; s < cs.length; s++) {
+        vertices[s] = new int[n[s] * stride];
+        n[s] = 0;
+      }
       for (Vertex v : vs) {
-        vertices[i] = v.getId();
-        vertices[i + 1] = v.getDegreeDelta();
-        vertices[i + 2] = v.getPartitionsDelta();
-        i = i + 3;
+        int s = cs.length == 1 ? 0 : shard(v.getId());
+        int i = n[s];
+        vertices[s][i] = v.getId();
+        vertices[s][i + 1] = v.getDegreeDelta();
+        Serializer.putReplicas(vertices[s], i + 2, v.getPartitionsDelta(), nWords);
+        n[s] = i + stride;
+      }
+      for (int s = 0; s < cs.length; s++) {
+        if (vertices[s].length > 0) {
+          cs[s].send(Protocol.VERTICES_WRITE_REQUEST, vertices[s]);
+        }
       }
-      Serializer.serializeRequest(output, Protocol.VERTICES_WRITE_REQUEST, vertices);
     } catch (IOException ex) {
       ex.printStackTrace();
     }
@@ -150,20 +317,23 @@ public class HovercutRemoteState implements PartitionState {
 
   @Override
   public List<Partition> getAllPartitions() {
-    List<Partition> partitions = null;
+    return get(getAllPartitionsAsync());
+  }
+
+  @Override
+  public Future<List<Partition>> getAllPartitionsAsync() {
     try {
-      Socket c = getClient();
-      DataInputStream input = new DataInputStream(c.getInputStream());
-      DataOutputStream output = new DataOutputStream(c.getOutputStream());
-      output.writeByte(Protocol.PARTITIONS_REQUEST);
-      output.flush();
-      int[] ps = Serializer.deserializeRequest(input);
-      partitions = deserializePartititions(ps);
+      return new Decoded<List<Partition>>(getClient().request(Protocol.PARTITIONS_REQUEST)) {
+
+        @Override
+        List<Partition> decode(int[] r) {
+          return deserializePartititions(r);
+        }
+      };
     } catch (IOException ex) {
       ex.printStackTrace();
+      return new Failed<>(ex);
     }
-
-    return partitions;
   }
 
   @Override
@@ -174,26 +344,34 @@ public class HovercutRemoteState implements PartitionState {
   @Override
   public void putPartitions(List<Partition> ps) {
     try {
-      Socket c = getClient();
-      DataOutputStream output = new DataOutputStream(c.getOutputStream());
       int[] eDeltas = new int[ps.size()];
       for (Partition p : ps) {
         eDeltas[p.getId()] = p.getESizeDelta();
       }
-      Serializer.serializeRequest(output, Protocol.PARTITIONS_WRITE_REQUEST, eDeltas);
+      getClient().send(Protocol.PARTITIONS_WRITE_REQUEST, eDeltas);
     } catch (IOException ex) {
       ex.printStackTrace();
     }
   }
 
-  private Socket getClient() throws IOException {
-    Socket c = clients.get();
-    if (c == null || c.isClosed()) {
-      c = new Socket(ip, port);
-      clients.set(c);
+  /**
+   * @return the connection of this thread to the server of the partitions.
+   */
+  private RemoteClient getClient() throws IOException {
+    return getClients()[0];
+  }
+
+  /**
+   * @return the connections of this thread to all the servers.
+   */
+  private RemoteClient[] getClients() throws IOException {
+    RemoteClient[] cs = clients.get();
+    if (cs == null) {
+      cs = connect();
+      clients.set(cs);
     }
 
-    return c;
+    return cs;
   }
 
   private List<Partition> deserializePartititions(int[] r) {
@@ -208,39 +386,180 @@ public class HovercutRemoteState implements PartitionState {
   }
 
   @Override
-  public Map<Integer, Vertex> getAllVertices(int expectedSize) {
-    Map<Integer, Vertex> vertices = null;
+  public Map<Integer, Vertex> getAllVertices() {
     try {
-      Socket c = getClient();
-      DataInputStream input = new DataInputStream(c.getInputStream());
-      DataOutputStream output = new DataOutputStream(c.getOutputStream());
-      output.writeByte(Protocol.ALL_VERTICES_REQUEST);
-      output.writeInt(expectedSize);
-      output.flush();
-      int[] response = Serializer.deserializeRequest(input);
-      vertices = deserializeVertices(response);
+      Map<Integer, Vertex> vertices = new HashMap<>();
+      for (int[] response : requestAll(getClients(), Protocol.ALL_VERTICES_REQUEST)) {
+        vertices.putAll(deserializeVertices(response));
+      }
+      return vertices;
     } catch (IOException ex) {
-      ex.printStackTrace();
+      throw new IllegalStateException(ex);
     }
-    return vertices;
   }
 
   @Override
-  public void waitForAllUpdates(int expectedSize) {
+  public void waitForAllUpdates() {
     try {
-      Socket c = getClient();
-      DataInputStream input = new DataInputStream(c.getInputStream());
-      DataOutputStream output = new DataOutputStream(c.getOutputStream());
-      output.writeByte(Protocol.WAIT_FOR_ALL_UPDATES_REQUEST);
-      output.writeInt(expectedSize);
-      output.flush();
-      byte response = input.readByte();
-      if (response != Protocol.WAIT_FOR_ALL_UPDATES_RESPONSE) {
-        throw new Exception("wrong response from the storage server!");
-      }
-    } catch (Exception ex) {
+      requestAll(getClients(), Protocol.WAIT_FOR_ALL_UPDATES_REQUEST);
+    } catch (IOException ex) {
       ex.printStackTrace();
     }
   }
 
+  /**
+   * @throws IllegalStateException with the cause of the failure.
+   */
+  private static <T> T get(Future<T> f) {
+    try {
+      return f.get();
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException(ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Merges the vertices of the shards when they are taken.
+   */
+  private static class Gathered implements Future<Map<Integer, Vertex>> {
+
+    private final List<Future<Map<Integer, Vertex>>> parts;
+    private Map<Integer, Vertex> value = null;
+
+    Gathered(List<Future<Map<Integer, Vertex>>> parts) {
+      this.parts = parts;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      for (Future<Map<Integer, Vertex>> p : parts) {
+        if (!p.isDone()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public synchronized Map<Integer, Vertex> get() throws InterruptedException, ExecutionException {
+      if (value == null) {
+        Map<Integer, Vertex> vertices = new HashMap<>();
+        for (Future<Map<Integer, Vertex>> p : parts) {
+          vertices.putAll(p.get());
+        }
+        value = vertices;
+      }
+      return value;
+    }
+
+    @Override
+    public synchronized Map<Integer, Vertex> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (value == null) {
+        // The parts share one deadline.
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Map<Integer, Vertex> vertices = new HashMap<>();
+        for (Future<Map<Integer, Vertex>> p : parts) {
+          vertices.putAll(p.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+        }
+        value = vertices;
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Decodes a response of the storage when it is taken.
+   */
+  private static abstract class Decoded<T> implements Future<T> {
+
+    private final Future<int[]> response;
+    private T value = null;
+
+    Decoded(Future<int[]> response) {
+      this.response = response;
+    }
+
+    abstract T decode(int[] r);
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return response.isDone();
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+      if (value == null) {
+        value = decode(response.get());
+      }
+      return value;
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (value == null) {
+        value = decode(response.get(timeout, unit));
+      }
+      return value;
+    }
+  }
+
+  /**
+   * A request that could not be sent.
+   */
+  private static class Failed<T> implements Future<T> {
+
+    private final IOException error;
+
+    Failed(IOException error) {
+      this.error = error;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return true;
+    }
+
+    @Override
+    public T get() throws ExecutionException {
+      throw new ExecutionException(error);
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws ExecutionException {
+      return get();
+    }
+  }
 }
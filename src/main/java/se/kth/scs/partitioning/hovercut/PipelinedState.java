@@ -0,0 +1,237 @@
+package se.kth.scs.partitioning.hovercut;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import se.kth.scs.partitioning.AsyncPartitionState;
+import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionState;
+import se.kth.scs.partitioning.Vertex;
+
+/**
+ * Gives a loader asynchronous access to a blocking state. All the accesses of
+ * the loader run in order on a single I/O thread, so the reads of the next
+ * windows and the writes of the previous ones overlap with the allocation of
+ * the current window, like the requests on a remote connection. The resources
+ * of the state that belong to the loader are created and released in the I/O
+ * thread.
+ *
+ * @author Hooman
+ */
+public class PipelinedState implements AsyncPartitionState {
+
+  private final PartitionState state;
+  private final ExecutorService io = Executors.newSingleThreadExecutor();
+
+  public PipelinedState(PartitionState state) {
+    this.state = state;
+  }
+
+  @Override
+  public Future<Map<Integer, Vertex>> getVerticesAsync(final Set<Integer> vids) {
+    return io.submit(new Callable<Map<Integer, Vertex>>() {
+
+      @Override
+      public Map<Integer, Vertex> call() {
+        return state.getVertices(vids);
+      }
+    });
+  }
+
+  @Override
+  public Future<List<Partition>> getAllPartitionsAsync() {
+    return io.submit(new Callable<List<Partition>>() {
+
+      @Override
+      public List<Partition> call() {
+        return state.getAllPartitions();
+      }
+    });
+  }
+
+  /**
+   * @throws IllegalStateException with the cause of the failure.
+   */
+  private static <T> T get(Future<T> f) {
+    try {
+      return f.get();
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException(ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  @Override
+  public short getNumberOfPartitions() {
+    return state.getNumberOfPartitions();
+  }
+
+  @Override
+  public void applyState() {
+    get(io.submit(new Runnable() {
+
+      @Override
+      public void run() {
+        state.applyState();
+      }
+    }));
+  }
+
+  @Override
+  public void waitForAllUpdates() {
+    get(io.submit(new Runnable() {
+
+      @Override
+      public void run() {
+        state.waitForAllUpdates();
+      }
+    }));
+  }
+
+  @Override
+  public void releaseResources(boolean releaseAll) {
+    state.releaseResources(releaseAll);
+  }
+
+  /**
+   * Waits for all the pending accesses, and stops the I/O thread.
+   */
+  @Override
+  public void releaseTaskResources() {
+    io.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        state.releaseTaskResources();
+      }
+    });
+    io.shutdown();
+    try {
+      io.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * Waits until the pending accesses are done and the inner state has
+   * flushed the updates of the I/O thread.
+   */
+  @Override
+  public void flushTaskUpdates() {
+    get(io.submit(new Runnable() {
+
+      @Override
+      public void run() {
+        state.flushTaskUpdates();
+      }
+    }));
+  }
+
+  @Override
+  public Vertex getVertex(final int vid) {
+    return get(io.submit(new Callable<Vertex>() {
+
+      @Override
+      public Vertex call() {
+        return state.getVertex(vid);
+      }
+    }));
+  }
+
+  @Override
+  public Map<Integer, Vertex> getAllVertices() {
+    return get(io.submit(new Callable<Map<Integer, Vertex>>() {
+
+      @Override
+      public Map<Integer, Vertex> call() {
+        return state.getAllVertices();
+      }
+    }));
+  }
+
+  @Override
+  public Map<Integer, Vertex> getVertices(Set<Integer> vids) {
+    return get(getVerticesAsync(vids));
+  }
+
+  @Override
+  public void putVertex(final Vertex v) {
+    io.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        state.putVertex(v);
+      }
+    });
+  }
+
+  @Override
+  public void putVertices(final Collection<Vertex> vs) {
+    io.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        state.putVertices(vs);
+      }
+    });
+  }
+
+  @Override
+  public Partition getPartition(final short pid) {
+    return get(io.submit(new Callable<Partition>() {
+
+      @Override
+      public Partition call() {
+        return state.getPartition(pid);
+      }
+    }));
+  }
+
+  @Override
+  public List<Partition> getPartions(final short[] pids) {
+    return get(io.submit(new Callable<List<Partition>>() {
+
+      @Override
+      public List<Partition> call() {
+        return state.getPartions(pids);
+      }
+    }));
+  }
+
+  @Override
+  public List<Partition> getAllPartitions() {
+    return get(getAllPartitionsAsync());
+  }
+
+  @Override
+  public void putPartition(final Partition p) {
+    io.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        state.putPartition(p);
+      }
+    });
+  }
+
+  @Override
+  public void putPartitions(final List<Partition> ps) {
+    io.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        state.putPartitions(ps);
+      }
+    });
+  }
+}
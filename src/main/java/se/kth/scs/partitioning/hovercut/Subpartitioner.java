@@ -1,16 +1,29 @@
 package se.kth.scs.partitioning.hovercut;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import se.kth.scs.partitioning.AsyncPartitionState;
 import se.kth.scs.partitioning.Edge;
+import se.kth.scs.partitioning.EdgeSource;
+import se.kth.scs.partitioning.EdgeWindow;
 import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionLoads;
+import se.kth.scs.partitioning.PartitionRefresh;
 import se.kth.scs.partitioning.PartitionState;
+import se.kth.scs.partitioning.ReplicaSet;
 import se.kth.scs.partitioning.Vertex;
 import se.kth.scs.partitioning.policy.PartitionSelectionPolicy;
+import se.kth.scs.partitioning.policy.StateRequirement;
+import se.kth.scs.utils.LongArrayList;
+import se.kth.scs.utils.PartitionedEdgeWriter;
 
 /**
  * This is an implementation of a partitioning loader.
@@ -19,32 +32,89 @@ import se.kth.scs.partitioning.policy.PartitionSelectionPolicy;
  */
 public class Subpartitioner implements Runnable {
 
-  private final LinkedHashSet<Edge> edges;
+  private final EdgeSource edges;
   private final PartitionSelectionPolicy heuristic;
   private final int windowSize;
   private final PartitionState state;
   private final int pUpdateFrequency;
   private final boolean exactDegree;
+  private final int pipelineDepth;
+  private final WindowController controller; // Null if the window size is fixed.
+  private final int maxWindow;
+  private final PartitionRefresh refresh; // Null if the partitions are read at a fixed rate.
+  private final VertexDeltaBuffer writeBehind; // Null if the vertices are written after every window.
+  private final VertexCache cache; // Null if the vertices are always read.
+  private long windowNumber = 0;
 
-  private final LinkedList<Edge>[] assignments;
+  private final LongArrayList[] assignments;
+  private final PartitionedEdgeWriter writer;
+  private final EdgeWindow window;
+  // False if the policy does not read the vertices, that are only written.
+  private final boolean readVertices;
+  // Time spent in the policy and in writing the state for the last window.
+  private long policyNanos;
+  private long writeNanos;
 
+  /**
+   *
+   * @param state
+   * @param edges It can be a materialized split or a stream of edges.
+   * @param heuristic
+   * @param windowSize
+   * @param pUpdateFrequency
+   * @param exactDegree
+   * @param keepAssignments If it's false, the assigned edges are not kept, which
+   * is required to partition a stream of edges with a bounded memory.
+   * @param pipelineDepth Number of windows whose state is read ahead, including
+   * the current one. One disables the pipeline. Otherwise, the state must be an
+   * AsyncPartitionState.
+   * @param parts The optional parts of this subpartitioner. An adaptive window
+   * starts from windowSize.
+   *
+   * The updates of the task are flushed at its end, but the resources of the
+   * state that belong to the thread are kept for the next tasks.
+   */
   public Subpartitioner(
     PartitionState state,
-    LinkedHashSet<Edge> edges,
+    EdgeSource edges,
     PartitionSelectionPolicy heuristic,
     int windowSize,
     int pUpdateFrequency,
-    boolean exactDegree) {
+    boolean exactDegree,
+    boolean keepAssignments,
+    int pipelineDepth,
+    TaskParts parts) {
     this.edges = edges;
     this.heuristic = heuristic;
     this.windowSize = windowSize;
     this.state = state;
     this.pUpdateFrequency = pUpdateFrequency;
     this.exactDegree = exactDegree;
-    this.assignments = new LinkedList[state.getNumberOfPartitions()];
-    for (int i = 0; i < state.getNumberOfPartitions(); i++) {
-      this.assignments[i] = new LinkedList<>();
+    this.pipelineDepth = Math.max(1, pipelineDepth);
+    if (this.pipelineDepth > 1 && !(state instanceof AsyncPartitionState)) {
+      throw new IllegalArgumentException("A pipeline needs an asynchronous state, such as a PipelinedState.");
     }
+    this.controller = parts.controller;
+    this.maxWindow = controller == null ? windowSize : controller.max();
+    this.writer = parts.writer;
+    this.refresh = parts.refresh;
+    this.writeBehind = parts.writeBehind;
+    this.cache = readVertices(heuristic) ? parts.cache : null;
+    this.window = new EdgeWindow(windowSize, state.getNumberOfPartitions(), !exactDegree);
+    this.window.setRefresh(refresh);
+    this.readVertices = readVertices(heuristic);
+    if (keepAssignments) {
+      this.assignments = new LongArrayList[state.getNumberOfPartitions()];
+      for (int i = 0; i < state.getNumberOfPartitions(); i++) {
+        this.assignments[i] = new LongArrayList();
+      }
+    } else {
+      this.assignments = null;
+    }
+  }
+
+  private static boolean readVertices(PartitionSelectionPolicy heuristic) {
+    return heuristic.stateRequirement() != StateRequirement.NONE;
   }
 
   /**
@@ -53,78 +123,411 @@ public class Subpartitioner implements Runnable {
    * @return
    */
   public PartitionState partitionWithWindow() {
-    int counter = 1;
-    List<Edge> edgeWindow = new LinkedList<>();
+    long[] edgeWindow = new long[maxWindow];
     Set<Integer> vertices = new HashSet();
-    int partitionsWindow = windowSize / pUpdateFrequency;
-    for (Edge e : edges) {
-      edgeWindow.add(e);
-      vertices.add(e.getSrc());
-      vertices.add(e.getDst());
-      if (counter % windowSize == 0) {
-        allocateNextWindow(edgeWindow, vertices, state, partitionsWindow);
-        edgeWindow.clear();
-        vertices.clear();
-      }
-      counter++;
-    }
-
-    if (!edgeWindow.isEmpty()) {
-      allocateNextWindow(edgeWindow, vertices, state, partitionsWindow);
-      edgeWindow.clear();
+    Map<Integer, Vertex> previous = null;
+    int limit;
+    int size;
+    while ((size = nextWindow(edgeWindow, limit = windowLimit())) > 0) {
+      for (int i = 0; readVertices && i < size; i++) {
+        vertices.add(Edge.src(edgeWindow[i]));
+        vertices.add(Edge.dst(edgeWindow[i]));
+      }
+      previous = allocateNextWindow(edgeWindow, size, vertices, state, partitionsWindow(limit), previous);
       vertices.clear();
+      if (writeBehind != null && writeBehind.due()) {
+        writeBehind.flush(state, false);
+      }
+    }
+    if (writeBehind != null) {
+      writeBehind.flush(state, false);
     }
 
     return state;
   }
 
-  private void allocateNextWindow(
-    final List<Edge> edgeWindow,
+  /**
+   * Partitions the edges while the state of the next windows is read and the
+   * changes of the previous windows are written. The state of a window is read
+   * before the changes of the (depth - 1) windows before it are written, so
+   * these changes are added to it locally. With a write-behind buffer, the
+   * buffer adds the changes that the read missed instead.
+   *
+   * @param io
+   */
+  private void partitionPipelined(AsyncPartitionState io) {
+    short k = io.getNumberOfPartitions();
+    ArrayDeque<Window> inFlight = new ArrayDeque<>(pipelineDepth);
+    ArrayDeque<Window> unseen = new ArrayDeque<>(pipelineDepth);
+    Window w;
+    while (inFlight.size() < pipelineDepth && (w = readWindow(io, new long[maxWindow])) != null) {
+      inFlight.add(w);
+    }
+    while ((w = inFlight.poll()) != null) {
+      long start = System.nanoTime();
+      Map<Integer, Vertex> vertices = w.vertices == null ? new HashMap<Integer, Vertex>() : get(w.vertices);
+      List<Partition> partitions = w.partitions == null ? knownPartitions() : get(w.partitions);
+      long readNanos = System.nanoTime() - start;
+      vertices.putAll(w.hits);
+      if (writeBehind != null) {
+        writeBehind.addKnown(w.reads, vertices, w.generation);
+      }
+      // The cached vertices miss the changes of the unseen windows as well,
+      // but not the buffered ones. The known partitions already have the
+      // edges of the unseen windows.
+      addUnseen(writeBehind == null ? w.vIds : w.hits.keySet(), vertices, w.partitions == null ? null : partitions, unseen);
+      if (w.partitions != null && refresh != null) {
+        refresh.refreshed(partitions);
+      }
+      Window last = unseen.peekLast();
+      w.loads = new int[k];
+      allocate(w.edges, w.size, vertices, partitions, io, partitionsWindow(w.limit), w.loads);
+      if (cache != null) {
+        cache.update(vertices, w.reads, w.number);
+      }
+      adapt(w.size, readNanos, vertices, last == null ? null : last.allocated);
+      w.allocated = vertices;
+      unseen.add(w);
+      if (unseen.size() == pipelineDepth) {
+        unseen.poll();
+      }
+      if (writeBehind != null) {
+        Window oldest = inFlight.peek();
+        writeBehind.release(oldest == null ? writeBehind.generation() : oldest.generation);
+        if (writeBehind.due()) {
+          writeBehind.flush(io, true);
+        }
+      }
+      Window next = readWindow(io, w.edges);
+      if (next != null) {
+        inFlight.add(next);
+      }
+    }
+    if (writeBehind != null) {
+      writeBehind.flush(io, false);
+    }
+  }
+
+  /**
+   * Reads the next window of edges and requests its state.
+   *
+   * @param buffer To keep the edges, that can be the buffer of an allocated
+   * window.
+   * @return the window, or null if there is no more edge.
+   */
+  private Window readWindow(AsyncPartitionState io, long[] buffer) {
+    int limit = windowLimit();
+    int size = nextWindow(buffer, limit);
+    if (size == 0) {
+      return null;
+    }
+    Window w = new Window(buffer, size, limit);
+    if (writeBehind != null) {
+      w.generation = writeBehind.generation();
+    }
+    if (readVertices) {
+      for (int i = 0; i < size; i++) {
+        w.vIds.add(Edge.src(w.edges[i]));
+        w.vIds.add(Edge.dst(w.edges[i]));
+      }
+      w.number = windowNumber++;
+      if (cache != null) {
+        w.reads = cache.lookup(w.vIds, w.number, w.hits);
+      }
+      if (!w.reads.isEmpty()) {
+        w.vertices = io.getVerticesAsync(w.reads);
+      }
+    }
+    if (readPartitions()) {
+      w.partitions = io.getAllPartitionsAsync();
+    }
+    return w;
+  }
+
+  /**
+   * @param partitions Null if the partitions are not read from the state.
+   */
+  private void addUnseen(Set<Integer> vIds, Map<Integer, Vertex> vertices, List<Partition> partitions, ArrayDeque<Window> unseen) {
+    for (Window u : unseen) {
+      for (int vid : vIds) {
+        Vertex changed = u.allocated.get(vid);
+        if (changed != null) {
+          Vertex v = vertices.get(vid);
+          if (v == null) {
+            v = new Vertex(vid);
+            vertices.put(vid, v);
+          }
+          v.addKnown(changed);
+        }
+      }
+      for (int i = 0; partitions != null && i < partitions.size(); i++) {
+        Partition p = partitions.get(i);
+        p.setESize(p.getESize() + u.loads[p.getId()]);
+      }
+    }
+  }
+
+  /**
+   * A window of edges whose state is requested.
+   */
+  private static class Window {
+
+    final long[] edges;
+    final int size;
+    final int limit; // The window size when it was read.
+    final Set<Integer> vIds = new HashSet<>();
+    Set<Integer> reads = vIds; // The vertices that are not in the cache.
+    final Map<Integer, Vertex> hits = new HashMap<>();
+    long number;
+    Future<Map<Integer, Vertex>> vertices; // Null if the vertices are not read.
+    Future<List<Partition>> partitions; // Null if the known partitions are used.
+    long generation; // Of the write-behind buffer when the state was requested.
+    // After the allocation, the changed vertices and the number of edges
+    // assigned to each partition.
+    Map<Integer, Vertex> allocated;
+    int[] loads;
+
+    Window(long[] edges, int size, int limit) {
+      this.edges = edges;
+      this.size = size;
+      this.limit = limit;
+    }
+  }
+
+  /**
+   * @return the size of the next window.
+   */
+  private int windowLimit() {
+    return controller == null ? windowSize : controller.size();
+  }
+
+  /**
+   * @return true if the partitions are read from the state for the next
+   * window, or false if the sizes known after the previous window are used.
+   */
+  private boolean readPartitions() {
+    return refresh == null || window.loads() == null || refresh.read(window.loads());
+  }
+
+  /**
+   * @return a copy of the partition sizes known after the previous window,
+   * with its edges.
+   */
+  private List<Partition> knownPartitions() {
+    PartitionLoads loads = window.loads();
+    List<Partition> copy = new ArrayList<>(loads.size());
+    for (Partition p : loads) {
+      Partition c = new Partition(p.getId());
+      c.setESize(p.getESize());
+      copy.add(c);
+    }
+    return copy;
+  }
+
+  private int partitionsWindow(int limit) {
+    return Math.max(1, limit / pUpdateFrequency);
+  }
+
+  /**
+   * Fills the window from the source of edges.
+   *
+   * @param limit The window size, up to the length of the buffer.
+   * @return number of edges in the window, that is only less than the limit
+   * for the last window.
+   */
+  private int nextWindow(long[] edgeWindow, int limit) {
+    int size = 0;
+    int n;
+    while (size < limit && (n = edges.next(edgeWindow, size, limit - size)) > 0) {
+      size += n;
+    }
+    return size;
+  }
+
+  /**
+   * @param previous The vertices of the previous window after its allocation,
+   * or null.
+   * @return the vertices of this window after its allocation.
+   */
+  private Map<Integer, Vertex> allocateNextWindow(
+    final long[] edgeWindow,
+    final int size,
     final Set<Integer> vIds,
     final PartitionState state,
-    final int partitionWindow) {
-    Map<Integer, Vertex> vertices = state.getVertices(vIds);
-    List<Partition> partitions = state.getAllPartitions();
-    int counter = 1;
-    int size = edgeWindow.size();
-    for (Edge e : edgeWindow) {
-      Vertex u = vertices.get(e.getSrc());
-      Vertex v = vertices.get(e.getDst());
-      if (u == null) {
-        u = new Vertex(e.getSrc());
-        vertices.put(u.getId(), u);
-      }
-      if (v == null) {
-        v = new Vertex(e.getDst());
-        vertices.put(v.getId(), v);
-      }
-      if (!exactDegree) {
-        u.incrementDegree();
-        v.incrementDegree();
-      }
-      Partition assignedPartition = heuristic.allocateNextEdge(u, v, partitions);
-      u.addPartition(assignedPartition.getId());
-      v.addPartition(assignedPartition.getId());
-      assignedPartition.incrementESize();
-      this.assignments[assignedPartition.getId()].add(e);
-      if (counter % partitionWindow == 0 && counter < size) {
-        state.putPartitions(partitions);
-        partitions = state.getAllPartitions();
-      }
-      counter++;
-    }
-
-    state.putPartitions(partitions);
-    state.putVertices(vertices.values());
+    final int partitionWindow,
+    final Map<Integer, Vertex> previous) {
+    long start = System.nanoTime();
+    long number = windowNumber++;
+    Map<Integer, Vertex> hits = new HashMap<>();
+    Set<Integer> reads = cache == null ? vIds : cache.lookup(vIds, number, hits);
+    Map<Integer, Vertex> vertices;
+    List<Partition> partitions;
+    boolean read = readPartitions();
+    if (reads.isEmpty()) {
+      vertices = new HashMap<>();
+      partitions = read ? state.getAllPartitions() : knownPartitions();
+    } else if (state instanceof AsyncPartitionState) {
+      // Both reads share one round trip.
+      AsyncPartitionState async = (AsyncPartitionState) state;
+      Future<Map<Integer, Vertex>> fv = async.getVerticesAsync(reads);
+      Future<List<Partition>> fp = read ? async.getAllPartitionsAsync() : null;
+      vertices = get(fv);
+      partitions = read ? get(fp) : knownPartitions();
+    } else {
+      vertices = state.getVertices(reads);
+      partitions = read ? state.getAllPartitions() : knownPartitions();
+    }
+    if (read && refresh != null) {
+      refresh.refreshed(partitions);
+    }
+    long readNanos = System.nanoTime() - start;
+    if (writeBehind != null) {
+      writeBehind.addKnown(reads, vertices, writeBehind.generation());
+    }
+    // The cached vertices already have the changes of this subpartitioner.
+    vertices.putAll(hits);
+    allocate(edgeWindow, size, vertices, partitions, state, partitionWindow, null);
+    if (cache != null) {
+      cache.update(vertices, reads, number);
+    }
+    adapt(size, readNanos, vertices, previous);
+    return vertices;
+  }
+
+  /**
+   * Reports an allocated window to the controller. The shared vertices and
+   * the conflicts are counted on the state that was read for the window,
+   * before its own changes, against the previous window after its allocation.
+   *
+   * @param readNanos Time spent waiting for the state of the window.
+   * @param vertices The vertices of the window.
+   * @param previous The vertices of the previous window, or null.
+   */
+  private void adapt(int size, long readNanos, Map<Integer, Vertex> vertices, Map<Integer, Vertex> previous) {
+    if (controller == null) {
+      return;
+    }
+    int shared = 0;
+    int conflicts = 0;
+    if (previous != null) {
+      int words = ReplicaSet.words(state.getNumberOfPartitions());
+      for (Vertex v : vertices.values()) {
+        Vertex u = previous.get(v.getId());
+        if (u == null) {
+          continue;
+        }
+        shared++;
+        for (int w = 0; w < words; w++) {
+          // The new partitions of the window are not in the known ones.
+          if ((v.knownWord(w) & ~u.partitionsWord(w)) != 0) {
+            conflicts++;
+            break;
+          }
+        }
+      }
+    }
+    controller.update(size, readNanos + writeNanos, policyNanos, shared, conflicts);
+  }
+
+  /**
+   * Allocates the edges of a window and writes the changes to the state.
+   *
+   * @param loads If it's not null, counts the edges assigned to each
+   * partition.
+   */
+  private void allocate(
+    final long[] edgeWindow,
+    final int size,
+    final Map<Integer, Vertex> vertices,
+    final List<Partition> partitions,
+    final PartitionState state,
+    final int partitionWindow,
+    final int[] loads) {
+    long start = System.nanoTime();
+    window.load(edgeWindow, size, vertices, partitions, state, partitionWindow);
+    heuristic.allocateWindow(window);
+    window.apply();
+    for (int i = 0; i < size; i++) {
+      int p = window.assignment(i);
+      if (loads != null) {
+        loads[p]++;
+      }
+      if (assignments != null) {
+        assignments[p].add(edgeWindow[i]);
+      }
+      if (writer != null) {
+        write(p, edgeWindow[i]);
+      }
+    }
+
+    long allocated = System.nanoTime();
+    state.putPartitions(window.loads());
+    if (writeBehind == null) {
+      state.putVertices(vertices.values());
+    } else {
+      writeBehind.add(vertices.values());
+    }
+    policyNanos = allocated - start;
+    writeNanos = System.nanoTime() - allocated;
+  }
+
+  /**
+   * @throws IllegalStateException if the edge can not be written, which fails
+   * the task.
+   */
+  private void write(int partition, long e) {
+    try {
+      writer.write(partition, e);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * @throws IllegalStateException with the cause of the failure.
+   */
+  private static <T> T get(Future<T> f) {
+    try {
+      return f.get();
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException(ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ex);
+    }
   }
 
   @Override
   public void run() {
-    partitionWithWindow();
-    state.releaseTaskResources();
+    boolean failed = true;
+    try {
+      if (pipelineDepth == 1) {
+        partitionWithWindow();
+      } else {
+        partitionPipelined((AsyncPartitionState) state);
+      }
+      failed = false;
+    } finally {
+      // Even if the task failed, so the readers do not wait for its updates.
+      state.flushTaskUpdates();
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException ex) {
+          // The buffered edges are lost, unless the task failed anyway.
+          if (!failed) {
+            throw new IllegalStateException(ex);
+          }
+          ex.printStackTrace();
+        }
+      }
+    }
   }
 
-  public LinkedList<Edge>[] getAssignments() {
+  /**
+   * @return the assigned edges of each partition, or null if they are not kept.
+   */
+  public LongArrayList[] getAssignments() {
     return assignments;
   }
 
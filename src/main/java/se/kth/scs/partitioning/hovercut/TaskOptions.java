@@ -0,0 +1,47 @@
+package se.kth.scs.partitioning.hovercut;
+
+import se.kth.scs.partitioning.PartitionRefresh;
+import se.kth.scs.utils.PartitionedEdgeWriter;
+
+/**
+ * The options of the optional parts of the subpartitioners, that make the
+ * parts of every subpartitioner for a round. A subpartitioner keeps its window
+ * controller, and the size it reached, for the next rounds.
+ *
+ * @author Hooman
+ */
+class TaskOptions {
+
+  int minWindow = 0;
+  int maxWindow = 0; // Zero if the window size is fixed.
+  double maxConflictRate;
+  double refreshDrift = 0;
+  int writeBehindCapacity = 0;
+  long writeBehindAge;
+  int cacheCapacity = 0;
+  int cacheStaleness;
+  String cachePolicy;
+  private final WindowController[] controllers;
+
+  TaskOptions(int nTasks) {
+    this.controllers = new WindowController[nTasks];
+  }
+
+  /**
+   * @param task
+   * @param windowSize Initial size of an adaptive window.
+   * @param writer Null if the edges are not written.
+   * @return the parts of the subpartitioner for the next round.
+   */
+  TaskParts parts(int task, int windowSize, PartitionedEdgeWriter writer) {
+    if (maxWindow > 0 && controllers[task] == null) {
+      controllers[task] = new WindowController(windowSize, minWindow, maxWindow, maxConflictRate);
+    }
+    return new TaskParts(
+      controllers[task],
+      refreshDrift > 0 ? new PartitionRefresh(refreshDrift) : null,
+      writeBehindCapacity > 0 ? new VertexDeltaBuffer(writeBehindCapacity, writeBehindAge) : null,
+      cacheCapacity > 0 ? new VertexCache(cacheCapacity, cacheStaleness, cachePolicy) : null,
+      writer);
+  }
+}
@@ -0,0 +1,63 @@
+package se.kth.scs.partitioning.hovercut;
+
+import se.kth.scs.partitioning.PartitionRefresh;
+import se.kth.scs.utils.PartitionedEdgeWriter;
+
+/**
+ * The optional parts of a subpartitioner. A part that is off is null. The
+ * parts keep the state of a single subpartitioner and are not thread-safe, so
+ * every subpartitioner has its own.
+ *
+ * @author Hooman
+ */
+public class TaskParts {
+
+  final WindowController controller;
+  final PartitionRefresh refresh;
+  final VertexDeltaBuffer writeBehind;
+  final VertexCache cache;
+  final PartitionedEdgeWriter writer;
+
+  /**
+   * @param controller It adapts the window size after each window.
+   * @param refresh It decides when the partitions are read, instead of the
+   * update frequency.
+   * @param writeBehind It buffers the changes of the vertices, and it is
+   * flushed at the end.
+   * @param cache The vertices are read from it while they are fresh.
+   * @param writer The assigned edges are written to it, and it is closed at
+   * the end.
+   */
+  public TaskParts(
+    WindowController controller,
+    PartitionRefresh refresh,
+    VertexDeltaBuffer writeBehind,
+    VertexCache cache,
+    PartitionedEdgeWriter writer) {
+    this.controller = controller;
+    this.refresh = refresh;
+    this.writeBehind = writeBehind;
+    this.cache = cache;
+    this.writer = writer;
+  }
+
+  /**
+   * Prints the statistics of the parts that are on.
+   *
+   * @param task Index of the subpartitioner.
+   */
+  public void printStatistics(int task) {
+    if (controller != null) {
+      System.out.println(String.format("Window of subpartitioner %d: %s", task, controller));
+    }
+    if (refresh != null) {
+      System.out.println(String.format("Partitions of subpartitioner %d: %s", task, refresh));
+    }
+    if (writeBehind != null) {
+      System.out.println(String.format("Vertex writes of subpartitioner %d: %s", task, writeBehind));
+    }
+    if (cache != null) {
+      System.out.println(String.format("Vertex cache of subpartitioner %d: %s", task, cache));
+    }
+  }
+}
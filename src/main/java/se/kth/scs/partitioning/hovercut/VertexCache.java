@@ -0,0 +1,150 @@
+package se.kth.scs.partitioning.hovercut;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import se.kth.scs.partitioning.ReplicaSet;
+import se.kth.scs.partitioning.Vertex;
+
+/**
+ * A bounded cache of the vertices of a subpartitioner, in front of the reads
+ * of the state. A vertex that is in many windows, such as a hub of a power-law
+ * graph, is read from the state once in a while instead of in every window.
+ *
+ * An entry is the state of a vertex when it was read, with the changes of the
+ * subpartitioner since then. It misses the changes of the other
+ * subpartitioners, so it expires after a number of windows and is read again.
+ *
+ * With the LRU policy, the least recently used vertex is evicted. With the
+ * frequency policy, the least recently used vertex that was used again since it
+ * was cached gets a second chance, with its count of uses halved, so the
+ * vertices that are used in many windows stay in the cache.
+ *
+ * @author Hooman
+ */
+public class VertexCache {
+
+  public static final String LRU = "lru";
+  public static final String FREQUENCY = "frequency";
+  private final int capacity;
+  private final int maxStaleness;
+  private final boolean frequency;
+  private final LinkedHashMap<Integer, Entry> entries;
+  private long hits = 0;
+  private long misses = 0;
+  private long expired = 0;
+  private long evictions = 0;
+  private long hitAge = 0;
+
+  /**
+   * @param capacity Number of vertices.
+   * @param maxStaleness Number of windows after which an entry expires.
+   * @param policy LRU or FREQUENCY.
+   */
+  public VertexCache(int capacity, int maxStaleness, String policy) {
+    this.capacity = Math.max(1, capacity);
+    this.maxStaleness = Math.max(1, maxStaleness);
+    this.frequency = FREQUENCY.equalsIgnoreCase(policy);
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  private static class Entry {
+
+    ReplicaSet partitions;
+    int degree;
+    long read; // The window when the vertex was read from the state.
+    int uses = 1;
+  }
+
+  /**
+   * Looks up the vertices of a window.
+   *
+   * @param vids
+   * @param window Number of the window.
+   * @param cached To which a copy of the cached vertices is added.
+   * @return the vertices to read from the state.
+   */
+  public Set<Integer> lookup(Set<Integer> vids, long window, Map<Integer, Vertex> cached) {
+    Set<Integer> missed = new HashSet<>();
+    for (int vid : vids) {
+      Entry e = entries.get(vid);
+      if (e == null) {
+        misses++;
+        missed.add(vid);
+      } else if (window - e.read >= maxStaleness) {
+        expired++;
+        missed.add(vid);
+      } else {
+        hits++;
+        hitAge += window - e.read;
+        e.uses++;
+        Vertex v = new Vertex(vid, e.partitions.copy());
+        v.setpDegree(e.degree);
+        cached.put(vid, v);
+      }
+    }
+    return missed;
+  }
+
+  /**
+   * Keeps the vertices of an allocated window, with their changes.
+   *
+   * @param vertices
+   * @param read The vertices that were read from the state for the window.
+   * @param window Number of the window when they were read.
+   */
+  public void update(Map<Integer, Vertex> vertices, Set<Integer> read, long window) {
+    for (Vertex v : vertices.values()) {
+      Entry e = entries.get(v.getId());
+      if (e == null) {
+        if (!read.contains(v.getId())) {
+          // It was evicted after the lookup, so its state is not known.
+          continue;
+        }
+        makeRoom();
+        e = new Entry();
+        entries.put(v.getId(), e);
+      }
+      if (read.contains(v.getId())) {
+        e.read = window;
+      }
+      e.partitions = v.getPartitions();
+      e.degree = v.getpDegree();
+    }
+  }
+
+  private void makeRoom() {
+    Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+    while (entries.size() >= capacity && it.hasNext()) {
+      Map.Entry<Integer, Entry> eldest = it.next();
+      Entry e = eldest.getValue();
+      if (frequency && e.uses > 1) {
+        e.uses /= 2;
+        continue;
+      }
+      it.remove();
+      evictions++;
+    }
+    if (entries.size() >= capacity) {
+      // Every entry had a second chance.
+      it = entries.entrySet().iterator();
+      it.next();
+      it.remove();
+      evictions++;
+    }
+  }
+
+  @Override
+  public String toString() {
+    long lookups = hits + misses + expired;
+    return String.format("hit rate=%f\thits=%d\tmisses=%d\texpired=%d\tevictions=%d\taverage hit staleness=%f windows",
+      lookups == 0 ? 0 : (double) hits / lookups,
+      hits,
+      misses,
+      expired,
+      evictions,
+      hits == 0 ? 0 : (double) hitAge / hits);
+  }
+}
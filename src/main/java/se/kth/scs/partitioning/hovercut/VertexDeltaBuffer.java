@@ -0,0 +1,158 @@
+package se.kth.scs.partitioning.hovercut;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import se.kth.scs.partitioning.PartitionState;
+import se.kth.scs.partitioning.Vertex;
+
+/**
+ * Buffers the vertex changes of a subpartitioner and writes them behind. The
+ * degree and partition deltas of a vertex are added up across the windows, so
+ * a vertex that is in many windows, such as a hub of a power-law graph, is
+ * written once per flush instead of once per window. The buffer is flushed
+ * when it has too many vertices, when its oldest change is older than the
+ * staleness bound, and at the end of a task. The other subpartitioners do not
+ * see the buffered changes, so the bound is also how stale they can be.
+ *
+ * The subpartitioner still sees its own changes. The state that is read for a
+ * window misses the changes that were not written before the read was sent,
+ * and addKnown adds them to the vertices of the window. To do that for a read
+ * that is sent before a flush, as in the pipeline, the flushed changes are kept
+ * until no read from before the flush is in flight.
+ *
+ * @author Hooman
+ */
+public class VertexDeltaBuffer {
+
+  private final int capacity;
+  private final long maxAge; // In nanoseconds.
+  private Map<Integer, Vertex> deltas = new HashMap<>();
+  private long oldest; // When the first change of the buffer was added.
+  private long generation = 0; // Number of flushes.
+  private long firstFlushed = 0; // Generation when the first kept changes were flushed.
+  private final ArrayDeque<Map<Integer, Vertex>> flushed = new ArrayDeque<>();
+  private long added = 0;
+  private long written = 0;
+
+  /**
+   * @param capacity Number of vertices that triggers a flush.
+   * @param maxAgeMillis Age of the oldest change that triggers a flush.
+   */
+  public VertexDeltaBuffer(int capacity, long maxAgeMillis) {
+    this.capacity = Math.max(1, capacity);
+    this.maxAge = maxAgeMillis * 1000000;
+  }
+
+  /**
+   * Adds the changes of the vertices of an allocated window.
+   *
+   * @param vs
+   */
+  public void add(Collection<Vertex> vs) {
+    if (deltas.isEmpty()) {
+      oldest = System.nanoTime();
+    }
+    for (Vertex v : vs) {
+      if (v.getDegreeDelta() == 0 && v.getPartitionsDelta().isEmpty()) {
+        continue;
+      }
+      added++;
+      Vertex d = deltas.get(v.getId());
+      if (d == null) {
+        d = new Vertex(v.getId());
+        deltas.put(v.getId(), d);
+      }
+      d.setDegreeDelta(d.getDegreeDelta() + v.getDegreeDelta());
+      d.getPartitionsDelta().addAll(v.getPartitionsDelta());
+    }
+  }
+
+  /**
+   * @return true if the buffer is full or its oldest change is too old.
+   */
+  public boolean due() {
+    return deltas.size() >= capacity
+      || (!deltas.isEmpty() && System.nanoTime() - oldest >= maxAge);
+  }
+
+  /**
+   * Writes the buffered changes.
+   *
+   * @param state
+   * @param keep If the flushed changes are kept for the reads in flight.
+   */
+  public void flush(PartitionState state, boolean keep) {
+    if (deltas.isEmpty()) {
+      return;
+    }
+    state.putVertices(deltas.values());
+    written += deltas.size();
+    generation++;
+    if (keep) {
+      flushed.add(deltas);
+    } else {
+      flushed.clear();
+      firstFlushed = generation;
+    }
+    deltas = new HashMap<>();
+  }
+
+  /**
+   * @return the generation of the changes that a read sent now would see.
+   */
+  public long generation() {
+    return generation;
+  }
+
+  /**
+   * Adds the changes that a read missed to the vertices that it returned.
+   *
+   * @param vids The vertices of the read.
+   * @param vertices The vertices that the read returned, to which the missing
+   * ones are added.
+   * @param since The generation when the read was sent.
+   */
+  public void addKnown(Set<Integer> vids, Map<Integer, Vertex> vertices, long since) {
+    long g = firstFlushed;
+    for (Map<Integer, Vertex> f : flushed) {
+      if (g++ >= since) {
+        addKnown(vids, vertices, f);
+      }
+    }
+    addKnown(vids, vertices, deltas);
+  }
+
+  private static void addKnown(Set<Integer> vids, Map<Integer, Vertex> vertices, Map<Integer, Vertex> changes) {
+    for (int vid : vids) {
+      Vertex changed = changes.get(vid);
+      if (changed != null) {
+        Vertex v = vertices.get(vid);
+        if (v == null) {
+          v = new Vertex(vid);
+          vertices.put(vid, v);
+        }
+        v.addKnown(changed);
+      }
+    }
+  }
+
+  /**
+   * Drops the flushed changes that every read in flight has seen.
+   *
+   * @param since The generation of the oldest read in flight.
+   */
+  public void release(long since) {
+    while (firstFlushed < since && !flushed.isEmpty()) {
+      flushed.poll();
+      firstFlushed++;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("vertex changes=%d\twritten=%d\tflushes=%d", added, written, generation);
+  }
+}
@@ -0,0 +1,106 @@
+package se.kth.scs.partitioning.hovercut;
+
+/**
+ * Adapts the window size of a subpartitioner while it runs. After each window,
+ * the subpartitioner reports how long it waited for the state, how long the
+ * policy took, and how many of its vertices were changed by the other
+ * subpartitioners since its previous window.
+ *
+ * A vertex that is in two consecutive windows is shared, and it is a conflict
+ * if it got replicas from the other subpartitioners in between. These replicas
+ * were not seen when the previous window was allocated, which is what makes
+ * the replication factor of a parallel run worse than a sequential one. The
+ * controller keeps a moving average of the conflict rate and halves the window
+ * when it is over the target. Otherwise, if waiting for the state takes longer
+ * than the policy, the window grows by a quarter, so a round trip is paid for
+ * more edges. The window never leaves [min, max].
+ *
+ * @author Hooman
+ */
+public class WindowController {
+
+  private static final double LAST_WINDOW_WEIGHT = 0.25;
+  private final int min;
+  private final int max;
+  private final double maxConflictRate;
+  private int size;
+  private double conflictRate = 0;
+  private long windows = 0;
+  private long edges = 0;
+  private long grown = 0;
+  private long shrunk = 0;
+  private long stateNanos = 0;
+  private long policyNanos = 0;
+
+  /**
+   * @param initial
+   * @param min
+   * @param max
+   * @param maxConflictRate Target fraction of the shared vertices that are
+   * changed by the others between two windows.
+   */
+  public WindowController(int initial, int min, int max, double maxConflictRate) {
+    this.min = Math.max(1, min);
+    this.max = Math.max(this.min, max);
+    this.maxConflictRate = maxConflictRate;
+    this.size = Math.min(this.max, Math.max(this.min, initial));
+  }
+
+  /**
+   * @return the size of the next window.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the largest size of a window.
+   */
+  public int max() {
+    return max;
+  }
+
+  /**
+   * Reports an allocated window and adapts the size of the next one.
+   *
+   * @param n number of edges in the window.
+   * @param stateTime time spent waiting for the state, in nanoseconds.
+   * @param policyTime time spent in the policy, in nanoseconds.
+   * @param shared number of vertices that were in the previous window, too.
+   * @param conflicts number of shared vertices with new replicas from the
+   * others.
+   */
+  public void update(int n, long stateTime, long policyTime, int shared, int conflicts) {
+    windows++;
+    edges += n;
+    stateNanos += stateTime;
+    policyNanos += policyTime;
+    if (shared > 0) {
+      conflictRate = LAST_WINDOW_WEIGHT * conflicts / shared + (1 - LAST_WINDOW_WEIGHT) * conflictRate;
+    }
+    if (conflictRate > maxConflictRate) {
+      if (size > min) {
+        size = Math.max(min, size / 2);
+        shrunk++;
+      }
+      // The next decision needs new evidence.
+      conflictRate = maxConflictRate;
+    } else if (stateTime > policyTime && size < max) {
+      size = Math.min(max, size + Math.max(1, size / 4));
+      grown++;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("windows=%d\taverage=%d\tlast=%d\tgrown=%d\tshrunk=%d\tconflict rate=%f\tstate=%dms\tpolicy=%dms",
+      windows,
+      windows == 0 ? 0 : edges / windows,
+      size,
+      grown,
+      shrunk,
+      conflictRate,
+      stateNanos / 1000000,
+      policyNanos / 1000000);
+  }
+}
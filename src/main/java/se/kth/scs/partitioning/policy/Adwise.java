@@ -0,0 +1,239 @@
+package se.kth.scs.partitioning.policy;
+
+import java.util.Arrays;
+import java.util.List;
+import se.kth.scs.partitioning.EdgeWindow;
+import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionLoads;
+import se.kth.scs.partitioning.Vertex;
+
+/**
+ * A window-adaptive policy in the style of ADWISE: Mayer, Christian, et al.
+ * "ADWISE: Adaptive Window-based Streaming Edge Partitioning for
+ * High-Speed Graph Processing." ICDCS 2018.
+ *
+ * Instead of the order of arrival, the edges of a window are assigned in the
+ * order of the best score that they can get from the policy. The edge with the
+ * highest score goes first, so the edges whose endpoints are already
+ * replicated are assigned before the uncertain ones, which then see more
+ * replicas. After an assignment, only the edges of an endpoint that got a new
+ * replica are scored again; a change of the partition sizes or the degrees
+ * alone does not reorder the pending edges. An endpoint gets at most k
+ * replicas, so the edges of a hub are scored again at most k times.
+ *
+ * Assigning the certain edges first grows a partition along the neighbors of
+ * its edges, so, as in ADWISE, the weight of the balance score adapts: it
+ * grows with the difference between the largest and the smallest partition,
+ * beyond a slack of the share of a window for each partition.
+ *
+ * @author Hooman
+ */
+public class Adwise implements PartitionSelectionPolicy {
+
+  private final PartitionSelectionPolicy policy;
+  private final WindowScoring scoring;
+
+  /**
+   * @param <T>
+   * @param policy The policy that scores and assigns the edges.
+   */
+  public <T extends PartitionSelectionPolicy & WindowScoring> Adwise(T policy) {
+    this.policy = policy;
+    this.scoring = policy;
+  }
+
+  /**
+   * A single edge can not be reordered, so it is assigned by the policy.
+   */
+  @Override
+  public Partition allocateNextEdge(Vertex v1, Vertex v2, List<Partition> partitions) {
+    return policy.allocateNextEdge(v1, v2, partitions);
+  }
+
+  @Override
+  public StateRequirement stateRequirement() {
+    return policy.stateRequirement();
+  }
+
+  @Override
+  public void allocateWindow(EdgeWindow w) {
+    int n = w.size();
+    // The edges of each slot, in the order of arrival.
+    int nSlots = w.nVertices();
+    int[] start = new int[nSlots + 1];
+    for (int i = 0; i < n; i++) {
+      start[w.src(i) + 1]++;
+      if (w.dst(i) != w.src(i)) {
+        start[w.dst(i) + 1]++;
+      }
+    }
+    for (int s = 0; s < nSlots; s++) {
+      start[s + 1] += start[s];
+    }
+    int[] incident = new int[start[nSlots]];
+    int[] next = Arrays.copyOf(start, nSlots);
+    for (int i = 0; i < n; i++) {
+      incident[next[w.src(i)]++] = i;
+      if (w.dst(i) != w.src(i)) {
+        incident[next[w.dst(i)]++] = i;
+      }
+    }
+
+    int[] versions = new int[n];
+    boolean[] assigned = new boolean[n];
+    Queue queue = new Queue(2 * n);
+    for (int i = 0; i < n; i++) {
+      queue.push(rank(w, i), i, 0);
+    }
+    while (!queue.isEmpty()) {
+      int i = queue.edge();
+      int version = queue.version();
+      queue.pop();
+      if (assigned[i] || version != versions[i]) {
+        continue; // The edge is already assigned or scored again.
+      }
+      int u = w.src(i);
+      int v = w.dst(i);
+      w.begin(i);
+      int position = scoring.best(w, u, v, w.degree(u), w.degree(v), balance(w));
+      int pid = w.loads().id(position);
+      boolean newU = !w.hasReplica(u, pid);
+      boolean newV = v != u && !w.hasReplica(v, pid);
+      w.assign(i, position);
+      assigned[i] = true;
+      for (int round = 0; round < 2; round++) {
+        int slot = round == 0 ? u : v;
+        if (!(round == 0 ? newU : newV)) {
+          continue;
+        }
+        for (int j = start[slot]; j < start[slot + 1]; j++) {
+          int e = incident[j];
+          if (!assigned[e]) {
+            queue.push(rank(w, e), e, ++versions[e]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the best score of an edge, as if it was the next one to be
+   * assigned.
+   */
+  private double rank(EdgeWindow w, int i) {
+    int u = w.src(i);
+    int v = w.dst(i);
+    int degreeU = w.degree(u);
+    int degreeV = w.degree(v);
+    if (w.countsDegrees()) {
+      int own = u == v ? 2 : 1;
+      degreeU += own;
+      degreeV += own;
+    }
+    double balance = balance(w);
+    int position = scoring.best(w, u, v, degreeU, degreeV, balance);
+    if (position < 0) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    double score = scoring.score(w, u, v, degreeU, degreeV, position, balance);
+    return Double.isNaN(score) ? Double.NEGATIVE_INFINITY : score;
+  }
+
+  /**
+   * @return weight of the balance score for the current partitions.
+   */
+  private static double balance(EdgeWindow w) {
+    PartitionLoads loads = w.loads();
+    int slack = Math.max(1, w.size() / Math.max(1, loads.size()));
+    return Math.max(1, (double) (loads.maxLoad() - loads.minLoad()) / slack);
+  }
+
+  /**
+   * A binary max-heap of scored edges in primitive arrays. The ties go to the
+   * edge that arrived first.
+   */
+  private static class Queue {
+
+    private double[] scores;
+    private int[] edges;
+    private int[] versions;
+    private int size = 0;
+
+    Queue(int capacity) {
+      capacity = Math.max(1, capacity);
+      scores = new double[capacity];
+      edges = new int[capacity];
+      versions = new int[capacity];
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    int edge() {
+      return edges[0];
+    }
+
+    int version() {
+      return versions[0];
+    }
+
+    void push(double score, int edge, int version) {
+      if (size == scores.length) {
+        scores = Arrays.copyOf(scores, size * 2);
+        edges = Arrays.copyOf(edges, size * 2);
+        versions = Arrays.copyOf(versions, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!before(score, edge, scores[parent], edges[parent])) {
+          break;
+        }
+        set(i, parent);
+        i = parent;
+      }
+      scores[i] = score;
+      edges[i] = edge;
+      versions[i] = version;
+    }
+
+    void pop() {
+      size--;
+      if (size == 0) {
+        return;
+      }
+      double score = scores[size];
+      int edge = edges[size];
+      int version = versions[size];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && before(scores[child + 1], edges[child + 1], scores[child], edges[child])) {
+          child++;
+        }
+        if (!before(scores[child], edges[child], score, edge)) {
+          break;
+        }
+        set(i, child);
+        i = child;
+      }
+      scores[i] = score;
+      edges[i] = edge;
+      versions[i] = version;
+    }
+
+    private void set(int to, int from) {
+      scores[to] = scores[from];
+      edges[to] = edges[from];
+      versions[to] = versions[from];
+    }
+
+    private static boolean before(double s1, int e1, double s2, int e2) {
+      return s1 > s2 || (s1 == s2 && e1 < e2);
+    }
+  }
+}
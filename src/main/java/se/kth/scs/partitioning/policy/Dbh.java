@@ -0,0 +1,54 @@
+package se.kth.scs.partitioning.policy;
+
+import java.util.List;
+import se.kth.scs.partitioning.EdgeWindow;
+import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionLoads;
+import se.kth.scs.partitioning.Vertex;
+
+/**
+ * Degree-Based Hashing: Xie, Cong, et al. "Distributed Power-law Graph
+ * Computing: Theoretical and Empirical Analysis." NIPS 2014.
+ *
+ * An edge is assigned to the partition of the hash of its endpoint with the
+ * lower degree, so the high-degree vertices are the ones that are cut. The
+ * ties go to the endpoint with the lower ID. Only the degrees of the vertices
+ * are read.
+ *
+ * @author Hooman
+ */
+public class Dbh implements PartitionSelectionPolicy {
+
+  @Override
+  public Partition allocateNextEdge(Vertex v1, Vertex v2, List<Partition> partitions) {
+    PartitionLoads loads = Hashing.loads(partitions);
+    int pid = choose(v1.getId(), v1.getpDegree(), v2.getId(), v2.getpDegree(), loads.size());
+    return loads.get(loads.position(pid));
+  }
+
+  @Override
+  public StateRequirement stateRequirement() {
+    return StateRequirement.DEGREES;
+  }
+
+  @Override
+  public void allocateWindow(EdgeWindow window) {
+    for (int i = 0; i < window.size(); i++) {
+      window.begin(i);
+      int u = window.src(i);
+      int v = window.dst(i);
+      int pid = choose(window.vertexId(u), window.degree(u), window.vertexId(v), window.degree(v), window.loads().size());
+      window.assign(i, window.loads().position(pid));
+    }
+  }
+
+  private static int choose(int u, int degreeU, int v, int degreeV, int k) {
+    int vid;
+    if (degreeU != degreeV) {
+      vid = degreeU < degreeV ? u : v;
+    } else {
+      vid = Math.min(u, v);
+    }
+    return Hashing.hash(vid) % k;
+  }
+}
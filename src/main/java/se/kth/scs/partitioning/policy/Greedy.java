@@ -3,14 +3,16 @@ package se.kth.scs.partitioning.policy;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import se.kth.scs.partitioning.EdgeWindow;
 import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionLoads;
 import se.kth.scs.partitioning.Vertex;
 
 /**
  *
  * @author Hooman
  */
-public class Greedy implements PartitionSelectionPolicy {
+public class Greedy implements PartitionSelectionPolicy, WindowScoring {
 
   private final double epsilon;
 
@@ -20,6 +22,13 @@ public class Greedy implements PartitionSelectionPolicy {
 
   @Override
   public Partition allocateNextEdge(Vertex v1, Vertex v2, List<Partition> partitions) {
+    if (partitions instanceof PartitionLoads) {
+      Partition p = allocateAmongCandidates(v1, v2, (PartitionLoads) partitions);
+      if (p != null) {
+        return p;
+      }
+    }
+
     // Compute C score for each partition.
     double maxScore = Long.MIN_VALUE;
     Partition maxPartition = null;
@@ -58,6 +67,102 @@ public class Greedy implements PartitionSelectionPolicy {
     return maxPartition;
   }
 
+  /**
+   * Scores only the partitions of v1 and v2 and the first least-loaded
+   * partition, the same way as Hdrf.
+   *
+   * @return the chosen partition, or null if the full scan must decide.
+   */
+  private Partition allocateAmongCandidates(final Vertex v1, final Vertex v2, final PartitionLoads loads) {
+    final int maxSize = loads.maxLoad();
+    final int minSize = loads.minLoad();
+    if (loads.isEmpty() || !(epsilon + maxSize - minSize > 0)) {
+      return null;
+    }
+    int position = loads.bestCandidate(new PartitionLoads.Candidates() {
+
+      @Override
+      public int nextReplica(int endpoint, int pid) {
+        return (endpoint == 0 ? v1 : v2).nextPartition(pid);
+      }
+
+      @Override
+      public double score(int position) {
+        Partition p = loads.get(position);
+        return computeReplicationScore(p, v1, v2)
+          + computeBalanceScore(p, maxSize, minSize, epsilon);
+      }
+    });
+    return loads.get(position);
+  }
+
+  @Override
+  public StateRequirement stateRequirement() {
+    return StateRequirement.FULL;
+  }
+
+  @Override
+  public void allocateWindow(EdgeWindow window) {
+    for (int i = 0; i < window.size(); i++) {
+      window.begin(i);
+      window.assign(i, best(window, window.src(i), window.dst(i), 0, 0, 1));
+    }
+  }
+
+  /**
+   * The same as allocateNextEdge on the slots of a window. The degrees are not
+   * used.
+   */
+  @Override
+  public int best(final EdgeWindow w, final int u, final int v, int degreeU, int degreeV, final double balance) {
+    final PartitionLoads loads = w.loads();
+    final int maxSize = loads.maxLoad();
+    final int minSize = loads.minLoad();
+    double maxScore = Long.MIN_VALUE;
+    int maxPosition = -1;
+    if (balance > 0 && !loads.isEmpty() && epsilon + maxSize - minSize > 0) {
+      // Only the replicas and the first least-loaded partition can win.
+      maxPosition = loads.bestCandidate(new PartitionLoads.Candidates() {
+
+        @Override
+        public int nextReplica(int endpoint, int pid) {
+          return w.nextReplica(endpoint == 0 ? u : v, pid);
+        }
+
+        @Override
+        public double score(int position) {
+          return Greedy.this.score(w, u, v, loads.id(position), loads.load(position), maxSize, minSize, balance);
+        }
+      });
+    } else {
+      for (int position = 0; position < loads.size(); position++) {
+        double score = score(w, u, v, loads.id(position), loads.load(position), maxSize, minSize, balance);
+        if (score > maxScore) {
+          maxScore = score;
+          maxPosition = position;
+        }
+      }
+    }
+    return maxPosition;
+  }
+
+  @Override
+  public double score(EdgeWindow w, int u, int v, int degreeU, int degreeV, int position, double balance) {
+    PartitionLoads loads = w.loads();
+    return score(w, u, v, loads.id(position), loads.load(position), loads.maxLoad(), loads.minLoad(), balance);
+  }
+
+  private double score(EdgeWindow w, int u, int v, int pid, int edgeSize, int maxSize, int minSize, double balance) {
+    double sRep = 0;
+    if (w.hasReplica(u, pid)) {
+      sRep++;
+    }
+    if (w.hasReplica(v, pid)) {
+      sRep++;
+    }
+    return sRep + balance * (maxSize - edgeSize) / (epsilon + maxSize - minSize);
+  }
+
   public static double computeReplicationScore(Partition p, Vertex v, Vertex u) {
     double sr = 0;
     if (v.containsPartition(p.getId())) {
@@ -0,0 +1,90 @@
+package se.kth.scs.partitioning.policy;
+
+import java.util.List;
+import se.kth.scs.partitioning.EdgeWindow;
+import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionLoads;
+import se.kth.scs.partitioning.Vertex;
+
+/**
+ * The constrained grid of PowerGraph: Gonzalez, Joseph E., et al.
+ * "PowerGraph: Distributed Graph-Parallel Computation on Natural Graphs." OSDI
+ * 2012.
+ *
+ * The partitions are laid out in a grid, row by row, and a vertex is hashed to
+ * a cell of it. A vertex can only be replicated in the row and the column of
+ * its cell, and an edge is assigned to the least-loaded partition that both of
+ * its endpoints can be replicated in. If k is not a square, the last row is
+ * not complete, and the cells out of it are not partitions. When the
+ * endpoints have no partition in common, the least-loaded partition in the
+ * row or the column of either of them is used.
+ *
+ * It only reads the partition sizes, not the vertices.
+ *
+ * @author Hooman
+ */
+public class Grid implements PartitionSelectionPolicy {
+
+  @Override
+  public Partition allocateNextEdge(Vertex v1, Vertex v2, List<Partition> partitions) {
+    PartitionLoads loads = Hashing.loads(partitions);
+    return loads.get(choose(v1.getId(), v2.getId(), loads));
+  }
+
+  @Override
+  public StateRequirement stateRequirement() {
+    return StateRequirement.NONE;
+  }
+
+  @Override
+  public void allocateWindow(EdgeWindow window) {
+    for (int i = 0; i < window.size(); i++) {
+      window.begin(i);
+      window.assign(i, choose(window.vertexId(window.src(i)), window.vertexId(window.dst(i)), window.loads()));
+    }
+  }
+
+  /**
+   * @return position of the chosen partition.
+   */
+  private static int choose(int u, int v, PartitionLoads loads) {
+    int k = loads.size();
+    int rows = Math.max(1, (int) Math.sqrt(k));
+    int cols = (k + rows - 1) / rows;
+    int cellU = Hashing.hash(u) % k;
+    int cellV = Hashing.hash(v) % k;
+    int best = leastLoaded(cellU, cellV, true, cols, loads);
+    if (best < 0) {
+      best = leastLoaded(cellU, cellV, false, cols, loads);
+    }
+    return best;
+  }
+
+  /**
+   * @param both If only the partitions in the row or the column of both cells
+   * are considered, otherwise of either of them.
+   * @return position of the least-loaded partition, or -1 if there is none.
+   */
+  private static int leastLoaded(int cellU, int cellV, boolean both, int cols, PartitionLoads loads) {
+    int k = loads.size();
+    int rows = (k + cols - 1) / cols;
+    int best = -1;
+    for (int round = 0; round < 2; round++) {
+      int cell = round == 0 ? cellU : cellV;
+      int other = round == 0 ? cellV : cellU;
+      // The row and then the column of the cell.
+      for (int j = 0; j < cols + rows; j++) {
+        int pid = j < cols ? (cell / cols) * cols + j : (j - cols) * cols + cell % cols;
+        if (pid >= k || (both && pid / cols != other / cols && pid % cols != other % cols)) {
+          continue;
+        }
+        int position = loads.position(pid);
+        if (position >= 0 && (best < 0 || loads.load(position) < loads.load(best)
+          || (loads.load(position) == loads.load(best) && position < best))) {
+          best = position;
+        }
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,36 @@
+package se.kth.scs.partitioning.policy;
+
+import java.util.List;
+import se.kth.scs.partitioning.EdgeWindow;
+import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionLoads;
+import se.kth.scs.partitioning.Vertex;
+
+/**
+ * Assigns an edge to the partition of the hash of its endpoints. It does not
+ * read any state, so the vertices are never read for it.
+ *
+ * @author Hooman
+ */
+public class Hash implements PartitionSelectionPolicy {
+
+  @Override
+  public Partition allocateNextEdge(Vertex v1, Vertex v2, List<Partition> partitions) {
+    PartitionLoads loads = Hashing.loads(partitions);
+    return loads.get(loads.position(Hashing.hash(v1.getId(), v2.getId()) % loads.size()));
+  }
+
+  @Override
+  public StateRequirement stateRequirement() {
+    return StateRequirement.NONE;
+  }
+
+  @Override
+  public void allocateWindow(EdgeWindow window) {
+    for (int i = 0; i < window.size(); i++) {
+      window.begin(i);
+      int pid = Hashing.hash(window.vertexId(window.src(i)), window.vertexId(window.dst(i))) % window.loads().size();
+      window.assign(i, window.loads().position(pid));
+    }
+  }
+}
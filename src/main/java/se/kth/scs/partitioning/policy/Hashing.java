@@ -0,0 +1,39 @@
+package se.kth.scs.partitioning.policy;
+
+import java.util.List;
+import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionLoads;
+
+/**
+ * The hash of the vertex IDs in the hash-based policies, that spreads the
+ * consecutive IDs over the partitions.
+ *
+ * @author Hooman
+ */
+final class Hashing {
+
+  private Hashing() {
+  }
+
+  static int hash(int vid) {
+    int h = vid;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h & Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return the partitions by ID, for the policies that pick a partition by
+   * its ID.
+   */
+  static PartitionLoads loads(List<Partition> partitions) {
+    return partitions instanceof PartitionLoads ? (PartitionLoads) partitions : new PartitionLoads(partitions);
+  }
+
+  static int hash(int u, int v) {
+    return hash(31 * hash(Math.min(u, v)) + Math.max(u, v));
+  }
+}
@@ -1,14 +1,16 @@
 package se.kth.scs.partitioning.policy;
 
 import java.util.List;
+import se.kth.scs.partitioning.EdgeWindow;
 import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionLoads;
 import se.kth.scs.partitioning.Vertex;
 
 /**
  *
  * @author Hooman
  */
-public class Hdrf implements PartitionSelectionPolicy {
+public class Hdrf implements PartitionSelectionPolicy, WindowScoring {
 
   private final double lambda;
   private final double epsilon;
@@ -28,6 +30,13 @@ public class Hdrf implements PartitionSelectionPolicy {
     double thetaV1 = (double) deltaV1 / (double) (deltaV1 + deltaV2);
     double thetaV2 = 1 - thetaV1;
 
+    if (partitions instanceof PartitionLoads && lambda > 0) {
+      Partition p = allocateAmongCandidates(v1, v2, thetaV1, thetaV2, (PartitionLoads) partitions);
+      if (p != null) {
+        return p;
+      }
+    }
+
     // Compute C score for each partition.
     double maxScore = Long.MIN_VALUE;
     Partition maxPartition = null;
@@ -67,6 +76,118 @@ public class Hdrf implements PartitionSelectionPolicy {
     return maxPartition;
   }
 
+  /**
+   * Scores only the partitions of v1 and v2 and the first least-loaded
+   * partition. The other partitions have no replication score and a lower or
+   * equal balance score than the least-loaded one, so they can not win. The
+   * ties go to the partition that comes first in the list, as in the full
+   * scan.
+   *
+   * @return the chosen partition, or null if the full scan must decide.
+   */
+  private Partition allocateAmongCandidates(final Vertex v1, final Vertex v2, final double thetaV1, final double thetaV2, final PartitionLoads loads) {
+    final int maxSize = loads.maxLoad();
+    final int minSize = loads.minLoad();
+    if (loads.isEmpty() || !(epsilon + maxSize - minSize > 0)) {
+      return null;
+    }
+    int position = loads.bestCandidate(new PartitionLoads.Candidates() {
+
+      @Override
+      public int nextReplica(int endpoint, int pid) {
+        return (endpoint == 0 ? v1 : v2).nextPartition(pid);
+      }
+
+      @Override
+      public double score(int position) {
+        Partition p = loads.get(position);
+        return computeReplicationScore(p, v1, v2, thetaV1, thetaV2)
+          + computeBalanceScore(p, maxSize, minSize, lambda, epsilon);
+      }
+    });
+    return loads.get(position);
+  }
+
+  @Override
+  public StateRequirement stateRequirement() {
+    return StateRequirement.FULL;
+  }
+
+  @Override
+  public void allocateWindow(EdgeWindow window) {
+    for (int i = 0; i < window.size(); i++) {
+      window.begin(i);
+      window.assign(i, choose(window, window.src(i), window.dst(i)));
+    }
+  }
+
+  /**
+   * The same as allocateNextEdge on the slots of a window.
+   *
+   * @return position of the chosen partition in the current partitions.
+   */
+  private int choose(EdgeWindow w, int u, int v) {
+    int deltaU = w.degree(u);
+    int deltaV = w.degree(v);
+    if (deltaU == 0 || deltaV == 0) {
+      System.err.println("Warning, vertex degree is zero!");
+    }
+    return best(w, u, v, deltaU, deltaV, 1);
+  }
+
+  @Override
+  public int best(final EdgeWindow w, final int u, final int v, int deltaU, int deltaV, final double balance) {
+    final double thetaU = (double) deltaU / (double) (deltaU + deltaV);
+    final double thetaV = 1 - thetaU;
+    final PartitionLoads loads = w.loads();
+    final int maxSize = loads.maxLoad();
+    final int minSize = loads.minLoad();
+    double maxScore = Long.MIN_VALUE;
+    int maxPosition = -1;
+    if (lambda * balance > 0 && !loads.isEmpty() && epsilon + maxSize - minSize > 0) {
+      // Only the replicas and the first least-loaded partition can win.
+      maxPosition = loads.bestCandidate(new PartitionLoads.Candidates() {
+
+        @Override
+        public int nextReplica(int endpoint, int pid) {
+          return w.nextReplica(endpoint == 0 ? u : v, pid);
+        }
+
+        @Override
+        public double score(int position) {
+          return Hdrf.this.score(w, u, v, thetaU, thetaV, loads.id(position), loads.load(position), maxSize, minSize, balance);
+        }
+      });
+    } else {
+      for (int position = 0; position < loads.size(); position++) {
+        double score = score(w, u, v, thetaU, thetaV, loads.id(position), loads.load(position), maxSize, minSize, balance);
+        if (score > maxScore) {
+          maxScore = score;
+          maxPosition = position;
+        }
+      }
+    }
+    return maxPosition;
+  }
+
+  @Override
+  public double score(EdgeWindow w, int u, int v, int deltaU, int deltaV, int position, double balance) {
+    double thetaU = (double) deltaU / (double) (deltaU + deltaV);
+    PartitionLoads loads = w.loads();
+    return score(w, u, v, thetaU, 1 - thetaU, loads.id(position), loads.load(position), loads.maxLoad(), loads.minLoad(), balance);
+  }
+
+  private double score(EdgeWindow w, int u, int v, double thetaU, double thetaV, int pid, int edgeSize, int maxSize, int minSize, double balance) {
+    double sRep = 0;
+    if (w.hasReplica(u, pid)) {
+      sRep += 1 + (1 - thetaU);
+    }
+    if (w.hasReplica(v, pid)) {
+      sRep += 1 + (1 - thetaV);
+    }
+    return sRep + lambda * balance * (maxSize - edgeSize) / (epsilon + maxSize - minSize);
+  }
+
   public static double computeReplicationScore(Partition p, Vertex v, Vertex u, double thetaV, double thetaU) {
     return g(p, v, thetaV) + g(p, u, thetaU);
   }
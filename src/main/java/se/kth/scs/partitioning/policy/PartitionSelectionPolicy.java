@@ -1,7 +1,7 @@
-
 package se.kth.scs.partitioning.policy;
 
 import java.util.List;
+import se.kth.scs.partitioning.EdgeWindow;
 import se.kth.scs.partitioning.Partition;
 import se.kth.scs.partitioning.Vertex;
 
@@ -12,4 +12,17 @@ import se.kth.scs.partitioning.Vertex;
 public interface PartitionSelectionPolicy {
   
   public Partition allocateNextEdge(Vertex v1, Vertex v2, List<Partition> partitions);
+
+  /**
+   * Assigns all the edges of a window. An edge is assigned by calling begin
+   * and then assign on the window, and the edges can be assigned in any order.
+   *
+   * @param window
+   */
+  public void allocateWindow(EdgeWindow window);
+
+  /**
+   * @return the state of the vertices that the policy reads.
+   */
+  public StateRequirement stateRequirement();
 }
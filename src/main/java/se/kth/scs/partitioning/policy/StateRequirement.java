@@ -0,0 +1,24 @@
+package se.kth.scs.partitioning.policy;
+
+/**
+ * What a policy reads from the state of the vertices to assign an edge. The
+ * subpartitioners do not read the vertices of a window for a policy that
+ * needs none of their state.
+ *
+ * @author Hooman
+ */
+public enum StateRequirement {
+
+  /**
+   * Only the IDs of the vertices, and at most the partition sizes.
+   */
+  NONE,
+  /**
+   * The degrees of the vertices, without their replicas.
+   */
+  DEGREES,
+  /**
+   * The degrees and the replicas of the vertices.
+   */
+  FULL
+}
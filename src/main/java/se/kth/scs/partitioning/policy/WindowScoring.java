@@ -0,0 +1,38 @@
+package se.kth.scs.partitioning.policy;
+
+import se.kth.scs.partitioning.EdgeWindow;
+
+/**
+ * A policy that can score an edge of a window against the current partitions,
+ * without assigning it. The degrees are given by the caller, so an edge can be
+ * scored before it is counted in the degrees of its endpoints.
+ *
+ * @author Hooman
+ */
+public interface WindowScoring {
+
+  /**
+   * @param w
+   * @param u Slot of the source.
+   * @param v Slot of the destination.
+   * @param degreeU
+   * @param degreeV
+   * @param balance Weight of the balance score, relative to the weight that
+   * the policy is configured with.
+   * @return position of the best partition for the edge in the current
+   * partitions of the window.
+   */
+  public int best(EdgeWindow w, int u, int v, int degreeU, int degreeV, double balance);
+
+  /**
+   * @param w
+   * @param u
+   * @param v
+   * @param degreeU
+   * @param degreeV
+   * @param position
+   * @param balance
+   * @return score of the edge in the partition at a position.
+   */
+  public double score(EdgeWindow w, int u, int v, int degreeU, int degreeV, int position, double balance);
+}
@@ -0,0 +1,432 @@
+package se.kth.scs.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import se.kth.scs.partitioning.Vertex;
+import se.kth.scs.remote.messages.CompactCodec;
+import se.kth.scs.remote.messages.Protocol;
+import se.kth.scs.remote.messages.Serializer;
+
+/**
+ * A non-blocking server for the remote state storage. The accepted connections
+ * are spread over a fixed number of selector threads, that decode the messages
+ * of the protocol from direct buffers and apply them on the storage.
+ *
+ * The requests that wait for the updates of the other clients are handed to a
+ * small pool of workers, so they never block a selector. They are answered as
+ * soon as every other session that has written is synchronized or closed. The connection does
+ * not read any request until such a request is answered, which keeps the
+ * order of the messages in a session. A worker only computes the response,
+ * which the selector queues when it resumes the connection, so the responses
+ * of a connection are only touched by its selector.
+ *
+ * A connection that sends a malformed request, or a request larger than
+ * MAX_FRAME_SIZE, is closed without affecting the other connections.
+ *
+ * @author Hooman
+ */
+public class NioStateServer {
+
+  private static final int INITIAL_BUFFER_SIZE = 1 << 14;
+  private static final int MAX_GATHER = 64; // Responses per gathering write.
+  private static final int MAX_FRAME_SIZE = 1 << 28;
+  private final ServerStorage state;
+  private final InetSocketAddress address;
+  private final SelectorLoop[] loops;
+  private final ExecutorService workers;
+
+  public NioStateServer(ServerStorage state, InetSocketAddress address, int nSelectors) throws IOException {
+    this.state = state;
+    this.address = address;
+    this.loops = new SelectorLoop[nSelectors];
+    for (int i = 0; i < nSelectors; i++) {
+      loops[i] = new SelectorLoop();
+    }
+    this.workers = Executors.newFixedThreadPool(nSelectors);
+  }
+
+  /**
+   * Accepts the clients until the process is stopped.
+   *
+   * @throws IOException
+   */
+  public void run() throws IOException {
+    for (int i = 0; i < loops.length; i++) {
+      Thread t = new Thread(loops[i], String.format("selector-%d", i));
+      t.setDaemon(true);
+      t.start();
+    }
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(address);
+      System.out.println(String.format("Server is waiting for clients to connect with %d selectors...", loops.length));
+      int i = 1;
+      while (true) {
+        SocketChannel channel = server.accept();
+        channel.socket().setTcpNoDelay(true);
+        System.out.println(String.format("Received connection request from client %d", i));
+        loops[i % loops.length].register(channel);
+        i++;
+      }
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  private class SelectorLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> answered = new ConcurrentLinkedQueue<>();
+
+    SelectorLoop() throws IOException {
+      this.selector = Selector.open();
+    }
+
+    void register(SocketChannel channel) {
+      accepted.add(channel);
+      selector.wakeup();
+    }
+
+    /**
+     * Called by a worker when a blocking request of a connection is answered.
+     */
+    void resume(Connection c) {
+      answered.add(c);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          selector.select();
+          registerAccepted();
+          resumeAnswered();
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection c = (Connection) key.attachment();
+            try {
+              if (key.isValid() && key.isWritable()) {
+                c.write();
+              }
+              if (key.isValid() && key.isReadable()) {
+                c.read();
+              }
+            } catch (IOException ex) {
+              c.close();
+            } catch (RuntimeException ex) {
+              ex.printStackTrace();
+              c.close();
+            }
+          }
+        } catch (IOException ex) {
+          ex.printStackTrace();
+        }
+      }
+    }
+
+    private void registerAccepted() throws IOException {
+      SocketChannel channel;
+      while ((channel = accepted.poll()) != null) {
+        channel.configureBlocking(false);
+        Connection c = new Connection(this, channel);
+        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+      }
+    }
+
+    private void resumeAnswered() {
+      Connection c;
+      while ((c = answered.poll()) != null) {
+        try {
+          c.waiting = false;
+          if (c.answer == null) {
+            // The blocking request failed.
+            c.close();
+            continue;
+          }
+          c.send(c.answer);
+          c.answer = null;
+          c.write();
+          // The requests that arrived while waiting are still in the buffer.
+          c.decode();
+        } catch (IOException ex) {
+          c.close();
+        } catch (RuntimeException ex) {
+          ex.printStackTrace();
+          c.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * The state of a client session in a selector thread.
+   */
+  private class Connection {
+
+    private final SelectorLoop loop;
+    private final SocketChannel channel;
+    private final Queue<ByteBuffer> responses = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private ByteBuffer input = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private SelectionKey key;
+    private volatile boolean waiting = false;
+    private volatile ByteBuffer answer = null; // The response of a blocking request.
+    private boolean closing = false;
+    private boolean writing = false; // Counted as a writer of the storage.
+    private CompactCodec codec = null; // Null in the raw encoding.
+
+    Connection(SelectorLoop loop, SocketChannel channel) {
+      this.loop = loop;
+      this.channel = channel;
+    }
+
+    void read() throws IOException {
+      if (!input.hasRemaining()) {
+        grow(input.capacity() * 2);
+      }
+      int n = channel.read(input);
+      if (n < 0) {
+        close();
+        return;
+      }
+      decode();
+    }
+
+    /**
+     * Handles all the complete requests in the input buffer.
+     */
+    void decode() throws IOException {
+      input.flip();
+      int needed = 0;
+      while (!waiting && !closing && input.hasRemaining()) {
+        needed = frameSize(input);
+        if (needed < 0 || input.remaining() < needed) {
+          break;
+        }
+        needed = 0;
+        handle(input.get());
+      }
+      input.compact();
+      if (needed > input.capacity()) {
+        grow(needed);
+      }
+      write();
+    }
+
+    /**
+     * @return size of the request at the head of the buffer, or -1 if its
+     * header is not complete yet. A request starts with its type and ID.
+     * @throws IOException if the size is negative or larger than
+     * MAX_FRAME_SIZE.
+     */
+    private int frameSize(ByteBuffer b) throws IOException {
+      int p = b.position();
+      byte type = b.get(p);
+      switch (type) {
+        case Protocol.VERTICES_READ_REQUEST:
+        case Protocol.VERTICES_WRITE_REQUEST:
+        case Protocol.PARTITIONS_WRITE_REQUEST:
+        case Protocol.ENCODING_REQUEST:
+          if (b.remaining() < 9) {
+            return -1;
+          }
+          int length = b.getInt(p + 5);
+          if (length < 0 || length > MAX_FRAME_SIZE - 9) {
+            throw new IOException(String.format("A request of %d bytes is rejected.", length));
+          }
+          return 9 + length;
+        default:
+          return 5;
+      }
+    }
+
+    private void handle(byte request) throws IOException {
+      final int id = input.getInt();
+      if (request == Protocol.VERTICES_READ_REQUEST) {
+        if (codec == null) {
+          int[] vids = Serializer.deserializeRequest(input, input.getInt());
+          LinkedList<Vertex> response = state.getVertices(vids);
+          send(Serializer.verticesReadResponse(id, response, state.getNumberOfWords()));
+        } else {
+          int[] vids = codec.decodeIds(Serializer.deserializeEncoded(input, input.getInt()));
+          send(Serializer.encodedResponse(id, codec.encodeVertices(state.getVertices(vids))));
+        }
+      } else if (request == Protocol.VERTICES_WRITE_REQUEST) {
+        wrote();
+        state.putVertices(codec == null
+          ? Serializer.deserializeRequest(input, input.getInt())
+          : codec.decodeVertices(Serializer.deserializeEncoded(input, input.getInt())));
+      } else if (request == Protocol.PARTITIONS_REQUEST) {
+        send(Serializer.arrayResponse(id, state.getPartitions()));
+      } else if (request == Protocol.PARTITIONS_WRITE_REQUEST) {
+        wrote();
+        state.putPartitions(Serializer.deserializeRequest(input, input.getInt()));
+      } else if (request == Protocol.ALL_VERTICES_REQUEST) {
+        synced();
+        block(new Callable<ByteBuffer>() {
+
+          @Override
+          public ByteBuffer call() {
+            return Serializer.arrayResponse(id, state.getAllVertices());
+          }
+        });
+      } else if (request == Protocol.WAIT_FOR_ALL_UPDATES_REQUEST) {
+        synced();
+        block(new Callable<ByteBuffer>() {
+
+          @Override
+          public ByteBuffer call() {
+            state.waitForAllUpdates();
+            return Serializer.waitResponse(id);
+          }
+        });
+      } else if (request == Protocol.SYNC_REQUEST) {
+        synced();
+        send(Serializer.syncResponse(id));
+      } else if (request == Protocol.ENCODING_REQUEST) {
+        int[] offer = Serializer.deserializeRequest(input, input.getInt());
+        short k = state.getNumberOfPartitions();
+        codec = offer.length > 0 && offer[0] == Protocol.COMPACT_ENCODING ? new CompactCodec(k) : null;
+        send(Serializer.encodingResponse(id, codec == null ? Protocol.RAW_ENCODING : Protocol.COMPACT_ENCODING, k));
+      } else if (request == Protocol.CLOSE_SESSION_REQUEST) {
+        System.out.println("A close-session request is received.");
+        synced();
+        closing = true;
+      } else if (request == Protocol.CLEAR_ALL_REQUEST) {
+        state.releaseResources(true);
+      } else if (request == Protocol.CLEAR_ALL_BUT_DEGREE_REQUEST) {
+        state.releaseResources(false);
+      } else {
+        System.out.println(String.format("Request type %d is not found.", request));
+        close();
+      }
+    }
+
+    private void wrote() {
+      if (!writing) {
+        writing = true;
+        state.beginWrites();
+      }
+    }
+
+    /**
+     * All the writes of the session before are applied.
+     */
+    private void synced() {
+      if (writing) {
+        writing = false;
+        state.endWrites();
+      }
+    }
+
+    /**
+     * Runs a request that may block on a worker. The selector queues its
+     * response when the connection is resumed, or closes the connection if the
+     * request failed.
+     */
+    private void block(final Callable<ByteBuffer> task) {
+      waiting = true;
+      workers.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            answer = task.call();
+          } catch (Exception ex) {
+            ex.printStackTrace();
+          } finally {
+            loop.resume(Connection.this);
+          }
+        }
+      });
+    }
+
+    /**
+     * Queues a response. The responses of the requests that are decoded
+     * together are written together, after the decoding.
+     */
+    private void send(ByteBuffer response) {
+      responses.add(response);
+    }
+
+    /**
+     * Writes the queued responses with gathering writes, as many as the
+     * channel takes.
+     */
+    void write() throws IOException {
+      while (!responses.isEmpty()) {
+        int n = Math.min(responses.size(), gather.length);
+        Iterator<ByteBuffer> it = responses.iterator();
+        for (int i = 0; i < n; i++) {
+          gather[i] = it.next();
+        }
+        channel.write(gather, 0, n);
+        boolean full = gather[n - 1].hasRemaining();
+        Arrays.fill(gather, 0, n, null);
+        while (!responses.isEmpty() && !responses.peek().hasRemaining()) {
+          responses.poll();
+        }
+        if (full) {
+          break;
+        }
+      }
+      updateInterest();
+    }
+
+    private void updateInterest() {
+      if (!key.isValid()) {
+        return;
+      }
+      if (closing && responses.isEmpty()) {
+        close();
+        return;
+      }
+      int ops = 0;
+      if (!waiting && !closing) {
+        ops |= SelectionKey.OP_READ;
+      }
+      if (!waiting && !responses.isEmpty()) {
+        ops |= SelectionKey.OP_WRITE;
+      }
+      key.interestOps(ops);
+    }
+
+    private void grow(int capacity) {
+      ByteBuffer b = ByteBuffer.allocateDirect(Math.max(capacity, input.capacity()));
+      input.flip();
+      b.put(input);
+      input = b;
+    }
+
+    void close() {
+      synced();
+      key.cancel();
+      try {
+        channel.close();
+        System.out.println("Socket is closed.");
+      } catch (ClosedChannelException ex) {
+        // Already closed.
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+}
@@ -1,67 +1,95 @@
 package se.kth.scs.remote;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.LinkedList;
 import se.kth.scs.partitioning.Vertex;
+import se.kth.scs.remote.messages.CompactCodec;
+import se.kth.scs.remote.messages.FrameChannel;
 import se.kth.scs.remote.messages.Protocol;
 import se.kth.scs.remote.messages.Serializer;
 
 /**
- * This class is handles a session to communicate with a client.
+ * This class is handles a session to communicate with a client. The session
+ * is counted as a writer from its first write until it is synchronized or
+ * closed.
+ *
+ * The responses stay in the output buffer while the next request is already
+ * read, so the responses of pipelined requests are written together. They are
+ * flushed before the handler blocks to read or to wait for the updates.
+ *
+ * The vertices are in the raw encoding until the client negotiates the
+ * compact one.
  *
  * @author Hooman
  */
 public class QueryHandler implements Runnable {
 
   private final ServerStorage state;
-  private final Socket socket;
+  private final SocketChannel channel;
+  private boolean writing = false;
+  private CompactCodec codec = null; // Null in the raw encoding.
 
-  public QueryHandler(ServerStorage state, Socket socket) {
+  public QueryHandler(ServerStorage state, SocketChannel channel) {
     this.state = state;
-    this.socket = socket;
+    this.channel = channel;
   }
 
   @Override
   public void run() {
+    FrameChannel frames = new FrameChannel(channel);
     try {
-      DataInputStream input = new DataInputStream(socket.getInputStream());
-      DataOutputStream output = new DataOutputStream(socket.getOutputStream());
       while (true) {
-        byte request = input.readByte();
+        byte request = frames.readByte();
+        int id = frames.readInt();
         if (request == Protocol.VERTICES_READ_REQUEST) {
-          int[] vids = Serializer.deserializeRequest(input);
-          LinkedList<Vertex> response = state.getVertices(vids);
-          Serializer.serializeVerticesReadResponse(output, response);
+          if (codec == null) {
+            int[] vids = Serializer.deserializeRequest(frames);
+            LinkedList<Vertex> response = state.getVertices(vids);
+            Serializer.serializeVerticesReadResponse(frames, id, response, state.getNumberOfWords());
+          } else {
+            LinkedList<Vertex> response = state.getVertices(codec.decodeIds(frames.readBytes()));
+            Serializer.serializeEncodedResponse(frames, id, codec.encodeVertices(response));
+          }
         } else if (request == Protocol.VERTICES_WRITE_REQUEST) {
-          int[] vertices = Serializer.deserializeRequest(input);
+          int[] vertices = codec == null
+            ? Serializer.deserializeRequest(frames)
+            : codec.decodeVertices(frames.readBytes());
+          wrote();
           state.putVertices(vertices);
         } else if (request == Protocol.PARTITIONS_REQUEST) {
           int[] response = state.getPartitions();
-          Serializer.serializePartitionsReadResponse(output, response);
+          Serializer.serializePartitionsReadResponse(frames, id, response);
         } else if (request == Protocol.PARTITIONS_WRITE_REQUEST) {
-          int[] partitions = Serializer.deserializeRequest(input);
+          int[] partitions = Serializer.deserializeRequest(frames);
+          wrote();
           state.putPartitions(partitions);
         } else if (request == Protocol.ALL_VERTICES_REQUEST) {
-          int expectedSize = Serializer.deserializeAllVerticesRequest(input);
-          int[] response = state.getAllVertices(expectedSize);
-          Serializer.serializeAllVerticesReadResponse(output, response);
+          synced();
+          int[] response = state.getAllVertices();
+          Serializer.serializeAllVerticesReadResponse(frames, id, response);
+        } else if (request == Protocol.ENCODING_REQUEST) {
+          int[] offer = Serializer.deserializeRequest(frames);
+          short k = state.getNumberOfPartitions();
+          codec = offer.length > 0 && offer[0] == Protocol.COMPACT_ENCODING ? new CompactCodec(k) : null;
+          Serializer.serializeEncodingResponse(frames, id, codec == null ? Protocol.RAW_ENCODING : Protocol.COMPACT_ENCODING, k);
         } else if (request == Protocol.CLOSE_SESSION_REQUEST) {
+          frames.flush();
           System.out.println("A close-session request is received.");
           break;
         } else if (request == Protocol.CLEAR_ALL_REQUEST) {
           state.releaseResources(true);
         } else if (request == Protocol.CLEAR_ALL_BUT_DEGREE_REQUEST) {
           state.releaseResources(false);
-        } else if (request == Protocol.WAIT_FOR_ALL_UPDATES_REQUEST)
-        {
-          int expectedSize = Serializer.deserializeAllVerticesRequest(input);
-          state.waitForAllUpdates(expectedSize);
-          output.writeByte(Protocol.WAIT_FOR_ALL_UPDATES_RESPONSE);
-          output.flush();
+        } else if (request == Protocol.WAIT_FOR_ALL_UPDATES_REQUEST) {
+          synced();
+          frames.flush();
+          state.waitForAllUpdates();
+          Serializer.serializeWaitResponse(frames, id);
+        } else if (request == Protocol.SYNC_REQUEST) {
+          synced();
+          Serializer.serializeSyncResponse(frames, id);
         } else {
           throw new Exception(String.format("Request type %d is not found.", request));
         }
@@ -71,11 +99,10 @@ public class QueryHandler implements Runnable {
         ex.printStackTrace();
       }
     }
+    synced();
 
     try {
-      if (!socket.isClosed()) {
-        socket.close();
-      }
+      frames.close();
       System.out.println("Socket is closed.");
     } catch (IOException ex) {
       if (!(ex instanceof EOFException)) {
@@ -83,4 +110,21 @@ public class QueryHandler implements Runnable {
       }
     }
   }
+
+  private void wrote() {
+    if (!writing) {
+      writing = true;
+      state.beginWrites();
+    }
+  }
+
+  /**
+   * All the writes of the session before are applied.
+   */
+  private void synced() {
+    if (writing) {
+      writing = false;
+      state.endWrites();
+    }
+  }
 }
@@ -0,0 +1,292 @@
+package se.kth.scs.remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import se.kth.scs.remote.messages.CompactCodec;
+import se.kth.scs.remote.messages.FrameChannel;
+import se.kth.scs.remote.messages.Protocol;
+import se.kth.scs.remote.messages.Serializer;
+
+/**
+ * A connection to the remote state storage that carries many outstanding
+ * requests. Every request gets an ID and a future, and the writes are buffered
+ * until a request needs a response, so they share the packets of the reads.
+ * The messages go through the reused direct buffers of a frame channel.
+ *
+ * The vertices are sent in the raw encoding, unless the compact one is
+ * negotiated with the storage. The payloads are encoded and decoded here, so
+ * the callers see the raw layout either way.
+ * The responses are read on demand by the thread that waits for one of them,
+ * and each response completes the future with the same ID. A timed wait only
+ * bounds the wait for the start of the next response; once it starts, the
+ * response is read to its end. A session is
+ * synchronized before it is closed, so its writes are applied on the storage
+ * when the close returns.
+ *
+ * @author Hooman
+ */
+public class RemoteClient implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int[] NO_VALUE = new int[0];
+  private final SocketChannel channel;
+  private final FrameChannel frames;
+  private final Map<Integer, Response> pending = new HashMap<>();
+  private int nextId = 0;
+  private IOException failure = null;
+  private CompactCodec codec = null; // Null in the raw encoding.
+
+  public RemoteClient(String ip, int port) throws IOException {
+    this.channel = SocketChannel.open(new InetSocketAddress(ip, port));
+    channel.socket().setTcpNoDelay(true);
+    this.frames = new FrameChannel(channel, BUFFER_SIZE);
+  }
+
+  /**
+   * Sends a request with an array of ints that has a response.
+   *
+   * @param type
+   * @param payload
+   * @return the future of the response.
+   * @throws IOException
+   */
+  public synchronized Future<int[]> request(byte type, int[] payload) throws IOException {
+    Response r = register(type);
+    if (codec != null && type == Protocol.VERTICES_READ_REQUEST) {
+      Serializer.serializeRequest(frames, type, r.id, codec.encodeIds(payload));
+    } else {
+      Serializer.serializeRequest(frames, type, r.id, payload);
+    }
+    frames.flush();
+    return r;
+  }
+
+  /**
+   * Sends a request without any argument that has a response.
+   *
+   * @param type
+   * @return the future of the response.
+   * @throws IOException
+   */
+  public synchronized Future<int[]> request(byte type) throws IOException {
+    Response r = register(type);
+    frames.writeHeader(type, r.id);
+    frames.flush();
+    return r;
+  }
+
+  /**
+   * Sends a request with an array of ints that has no response. It stays in
+   * the buffer until the next flush.
+   *
+   * @param type
+   * @param payload
+   * @throws IOException
+   */
+  public synchronized void send(byte type, int[] payload) throws IOException {
+    if (codec != null && type == Protocol.VERTICES_WRITE_REQUEST) {
+      Serializer.serializeRequest(frames, type, nextId++, codec.encodeVertices(payload));
+    } else {
+      Serializer.serializeRequest(frames, type, nextId++, payload);
+    }
+  }
+
+  /**
+   * Sends a request without any argument that has no response. It stays in
+   * the buffer until the next flush.
+   *
+   * @param type
+   * @throws IOException
+   */
+  public synchronized void send(byte type) throws IOException {
+    frames.writeHeader(type, nextId++);
+  }
+
+  public synchronized void flush() throws IOException {
+    frames.flush();
+  }
+
+  /**
+   * Waits until all the requests sent before are applied on the storage.
+   *
+   * @throws IOException
+   */
+  public void sync() throws IOException {
+    try {
+      request(Protocol.SYNC_REQUEST).get();
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * Switches the session to the compact encoding of the vertices. It is called
+   * before any vertex is read or written.
+   *
+   * The storage must know the encoding request. A threaded storage that does
+   * not closes the session, which fails here, but a non-blocking one misreads
+   * the request and never answers, so every storage must be as recent as the
+   * client.
+   *
+   * @throws IOException if the storage closes the session or keeps the raw
+   * encoding.
+   */
+  public void useCompactEncoding() throws IOException {
+    int[] accepted;
+    try {
+      accepted = request(Protocol.ENCODING_REQUEST, new int[]{Protocol.COMPACT_ENCODING}).get();
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new IOException("The storage does not support the compact encoding.", ex);
+    }
+    if (accepted[0] != Protocol.COMPACT_ENCODING) {
+      throw new IOException("The storage refused the compact encoding.");
+    }
+    synchronized (this) {
+      codec = new CompactCodec(accepted[1]);
+    }
+  }
+
+  private Response register(byte type) throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    Response r = new Response(nextId++, type);
+    pending.put(r.id, r);
+    return r;
+  }
+
+  /**
+   * Reads the responses until the given one arrives. The buffered requests are
+   * flushed first, since the storage may need them to answer.
+   */
+  private synchronized void await(Response r) throws ExecutionException {
+    try {
+      frames.flush();
+      while (!r.done) {
+        if (failure != null) {
+          throw failure;
+        }
+        readResponse();
+      }
+    } catch (IOException ex) {
+      failure = ex;
+      throw new ExecutionException(ex);
+    }
+  }
+
+  /**
+   * Reads the responses until the given one arrives or the timeout passes.
+   */
+  private synchronized void await(Response r, long timeoutNanos) throws ExecutionException, TimeoutException {
+    long start = System.nanoTime();
+    try {
+      while (!r.done) {
+        if (failure != null) {
+          throw failure;
+        }
+        long left = timeoutNanos - (System.nanoTime() - start);
+        if (left <= 0 || !frames.awaitInput(TimeUnit.NANOSECONDS.toMillis(left))) {
+          throw new TimeoutException(String.format("Response %d did not arrive in time.", r.id));
+        }
+        readResponse();
+      }
+    } catch (IOException ex) {
+      failure = ex;
+      throw new ExecutionException(ex);
+    }
+  }
+
+  private void readResponse() throws IOException {
+    int id = frames.readInt();
+    Response r = pending.remove(id);
+    if (r == null) {
+      throw new IOException(String.format("Response %d does not belong to any request.", id));
+    }
+    if (r.type == Protocol.WAIT_FOR_ALL_UPDATES_REQUEST || r.type == Protocol.SYNC_REQUEST) {
+      byte expected = r.type == Protocol.SYNC_REQUEST ? Protocol.SYNC_RESPONSE : Protocol.WAIT_FOR_ALL_UPDATES_RESPONSE;
+      if (frames.readByte() != expected) {
+        throw new IOException("wrong response from the storage server!");
+      }
+      r.complete(NO_VALUE);
+    } else if (codec != null && r.type == Protocol.VERTICES_READ_REQUEST) {
+      r.complete(codec.decodeVertices(frames.readBytes()));
+    } else {
+      r.complete(Serializer.deserializeRequest(frames));
+    }
+  }
+
+  /**
+   * Closes the session, after all the requests sent before are applied.
+   *
+   * @throws IOException
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel.isOpen()) {
+      try {
+        sync();
+      } finally {
+        send(Protocol.CLOSE_SESSION_REQUEST);
+        frames.flush();
+        frames.close();
+      }
+    }
+  }
+
+  private class Response implements Future<int[]> {
+
+    private final int id;
+    private final byte type;
+    private volatile boolean done = false;
+    private int[] value;
+
+    Response(int id, byte type) {
+      this.id = id;
+      this.type = type;
+    }
+
+    void complete(int[] value) {
+      this.value = value;
+      done = true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done;
+    }
+
+    @Override
+    public int[] get() throws InterruptedException, ExecutionException {
+      if (!done) {
+        await(this);
+      }
+      return value;
+    }
+
+    @Override
+    public int[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!done) {
+        await(this, unit.toNanos(timeout));
+      }
+      return value;
+    }
+  }
+}
@@ -4,8 +4,9 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 import se.kth.scs.utils.StorageInputCommands;
 
@@ -34,14 +35,25 @@ public class RemoteStateManager {
     }
 
     String[] addr = commands.address.split(":");
-    try (ServerSocket server = new ServerSocket(Integer.valueOf(addr[1]), 0, InetAddress.getByName(addr[0]))) {
-      ServerStorage state = new ServerStorage((short) commands.nPartitions);
+    if (commands.nio) {
+      try {
+        ServerStorage state = new ServerStorage((short) commands.nPartitions, commands.vertices);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(addr[0]), Integer.valueOf(addr[1]));
+        new NioStateServer(state, address, commands.selectors).run();
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+      return;
+    }
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(InetAddress.getByName(addr[0]), Integer.valueOf(addr[1])));
+      ServerStorage state = new ServerStorage((short) commands.nPartitions, commands.vertices);
       System.out.println("Server is waiting for clients to connect...");
       int i = 1;
       while (true) {
-        Socket socket = server.accept();
+        SocketChannel channel = server.accept();
         System.out.println(String.format("Received connection request from client %d", i));
-        Thread t = new Thread(new QueryHandler(state, socket));
+        Thread t = new Thread(new QueryHandler(state, channel));
         // We can postpone starting to when we receive all the connections.
         t.start();
         i++;
@@ -1,92 +1,128 @@
 package se.kth.scs.remote;
 
 import java.util.LinkedList;
-import java.util.concurrent.ConcurrentHashMap;
-import se.kth.scs.partitioning.ConcurrentPartition;
-import se.kth.scs.partitioning.ConcurrentVertex;
+import se.kth.scs.partitioning.ConcurrentVertexTable;
 import se.kth.scs.partitioning.Partition;
+import se.kth.scs.partitioning.PartitionCounters;
+import se.kth.scs.partitioning.ReplicaSet;
+import se.kth.scs.partitioning.UpdateBarrier;
 import se.kth.scs.partitioning.Vertex;
+import se.kth.scs.remote.messages.Serializer;
 
 /**
  *
- * The thread-safe in-memory storage for the remote state storage.
+ * The thread-safe in-memory storage for the remote state storage. A session
+ * that writes is counted from its first write until it is synchronized or
+ * closed, and the waits for all the updates block until no session is
+ * counted.
  *
  * @author Hooman
  */
 public class ServerStorage {
 
-  private final ConcurrentHashMap<Integer, ConcurrentVertex> vertices = new ConcurrentHashMap<>(); // Holds partial degree of each vertex.
-  private final ConcurrentHashMap<Short, ConcurrentPartition> partitions = new ConcurrentHashMap();
+  public static final int DEFAULT_EXPECTED_VERTICES = 1 << 16;
+  private final ConcurrentVertexTable vertices; // Holds partial degree and partitions of each vertex.
+  private final PartitionCounters partitions;
+  private final UpdateBarrier writers = new UpdateBarrier();
   private final short k;
+  private final int nWords;
 
   public ServerStorage(short k) {
-    this.k = k;
-    initPartitions(partitions, this.k);
+    this(k, DEFAULT_EXPECTED_VERTICES);
   }
 
-  private void initPartitions(final ConcurrentHashMap<Short, ConcurrentPartition> partitions, short k) {
-    partitions.clear();
-    for (short i = 0; i < k; i++) {
-      final ConcurrentPartition p = new ConcurrentPartition(i);
-      partitions.put(i, p);
-    }
+  /**
+   * @param k
+   * @param expectedVertices Number of vertices that the table is sized for. A
+   * table that overflows chains larger ones, which makes the lookups slower.
+   */
+  public ServerStorage(short k, int expectedVertices) {
+    this.k = k;
+    this.vertices = new ConcurrentVertexTable(expectedVertices, k);
+    this.nWords = vertices.nWords();
+    this.partitions = new PartitionCounters(k);
   }
 
   public short getNumberOfPartitions() {
     return k;
   }
 
+  /**
+   * @return number of words of the replica set of a vertex.
+   */
+  public int getNumberOfWords() {
+    return nWords;
+  }
+
   public void releaseResources(final boolean clearAll) {
     if (clearAll) {
       vertices.clear();
     } else {
-      for (ConcurrentVertex v : vertices.values()) {
-        v.resetPartition();
-      }
+      vertices.resetPartitions();
     }
-    initPartitions(partitions, k);
+    partitions.clear();
   }
 
   /**
    * Order of number of vertices. It serializes for efficiency.
    *
-   * @param expectedSize
    * @return
    */
-  public int[] getAllVertices(final int expectedSize) {
-    waitForAllUpdates(expectedSize);
-    int[] array = new int[vertices.size() * 3];
-    int i = 0;
-    for (ConcurrentVertex v : vertices.values()) {
-      array[i] = v.getId();
-      array[i + 1] = v.getpDegree();
-      array[i + 2] = v.getPartitions();
-      i = i + 3;
-    }
+  public int[] getAllVertices() {
+    waitForAllUpdates();
+    final int stride = Serializer.vertexSize(nWords);
+    final int[] array = new int[vertices.size() * stride];
+    vertices.forEach(new ConcurrentVertexTable.Visitor() {
+      int i = 0;
+
+      @Override
+      public void visit(int vid, int pDegree, ReplicaSet partitions) {
+        if (i < array.length) {
+          array[i] = vid;
+          array[i + 1] = pDegree;
+          Serializer.putReplicas(array, i + 2, partitions, nWords);
+          i = i + stride;
+        }
+      }
+    });
 
     return array;
   }
 
-  public void waitForAllUpdates(int expectedSize) {
-    // To work-around the concurrenthashmap's weak consistency,
-    // that affects inconsistent results between values().size() and the iterator over the valus.
-    int count = 1;
-    while (vertices.size() < expectedSize) {
-      try {
-        Thread.sleep(1);
-        System.out.println(String.format("Try number %d failed to collect expected number of vertices.", count));
-      } catch (InterruptedException ex) {
-        ex.printStackTrace();
-      }
-      count++;
+  /**
+   * Waits until every session that has written is synchronized or closed. The
+   * requests of a session are applied in order, so all their writes are
+   * applied by then. The calling session must not be counted.
+   */
+  public void waitForAllUpdates() {
+    try {
+      writers.await();
+    } catch (InterruptedException ex) {
+      ex.printStackTrace();
     }
   }
 
+  /**
+   * Counts a session from its first write after it was synchronized.
+   */
+  public void beginWrites() {
+    writers.begin();
+  }
+
+  /**
+   * A session that was counted is synchronized or closed.
+   */
+  public void endWrites() {
+    writers.end();
+  }
+
   public Vertex getVertex(final int vid) {
-    //TODO: a clone should be sent in multi-threaded version.
-    ConcurrentVertex v = vertices.get(vid);
-    if (v != null) {
-      return v.clone();
+    ReplicaSet partitions = new ReplicaSet();
+    int degree = vertices.get(vid, partitions);
+    if (degree != -1) {
+      Vertex v = new Vertex(vid, partitions);
+      v.setpDegree(degree);
+      return v;
     } else {
       return null;
     }
@@ -104,72 +140,43 @@ public class ServerStorage {
   }
 
   public void putVertex(final Vertex v) {
-    ConcurrentVertex shared = vertices.get(v.getId());
-    if (shared != null) {
-      shared.accumulate(v);
-    } else {
-      final ConcurrentVertex newVertex = new ConcurrentVertex(v.getId(), 0);
-      newVertex.accumulate(v);
-      shared = vertices.putIfAbsent(v.getId(), newVertex);
-      // Double check if the entry does not exist.
-      if (shared != null) {
-        shared.accumulate(v);
-      }
-    }
+    vertices.accumulate(v.getId(), v.getDegreeDelta(), v.getPartitionsDelta());
   }
 
-  public void putVertices(final int[] vertices) {
-    for (int i = 0; i < vertices.length; i = i + 3) {
-      Vertex v = new Vertex(vertices[i]);
-      v.setDegreeDelta(vertices[i + 1]);
-      v.setPartitionsDelta(vertices[i + 2]);
-      putVertex(v);
+  public void putVertices(final int[] vs) {
+    int stride = Serializer.vertexSize(nWords);
+    ReplicaSet delta = new ReplicaSet();
+    for (int i = 0; i < vs.length; i = i + stride) {
+      delta.clear();
+      vertices.accumulate(vs[i], vs[i + 1], Serializer.getReplicas(vs, i + 2, nWords, delta));
     }
   }
 
   public Partition getPartition(final short pid) {
-    ConcurrentPartition p = partitions.get(pid);
-    if (p != null) {
-      return p.clone();
+    if (pid >= 0 && pid < k) {
+      return partitions.partition(pid);
     } else {
       return null;
     }
   }
 
   public int[] getPartitions() {
+    long[] sizes = partitions.snapshot();
     int[] eSizes = new int[k];
-    for (short i = 0; i < k; i++) {
-      Partition p = getPartition(i);
-      if (p == null) {
-        eSizes[i] = 0;
-      } else {
-        eSizes[i] = p.getESize();
-      }
+    for (int i = 0; i < k; i++) {
+      eSizes[i] = PartitionCounters.toInt(sizes[i]);
     }
 
     return eSizes;
   }
 
   public void putPartition(Partition p) {
-    final ConcurrentPartition shared = partitions.get(p.getId());
-//    if (shared != null) {
-    shared.accumulate(p); // It shoudl exists. Because it is always initialized.
-//    } else {
-//      shared = new ConcurrentPartition(p.getId());
-//      shared.accumulate(p);
-//      shared = partitions.putIfAbsent(p.getId(), shared);
-//      // Double check if the entry does not exist.
-//      if (shared != null) {
-//        shared.accumulate(p);
-//      }
-//    }
+    partitions.add(p.getId(), p.getESizeDelta());
   }
 
   public void putPartitions(final int[] eSizes) {
-    for (short i = 0; i < eSizes.length; i++) {
-      Partition p = new Partition(i);
-      p.seteSizeDelta(eSizes[i]);
-      putPartition(p);
+    for (int i = 0; i < eSizes.length && i < k; i++) {
+      partitions.add(i, eSizes[i]);
     }
   }
 
@@ -0,0 +1,226 @@
+package se.kth.scs.remote.messages;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import se.kth.scs.partitioning.ReplicaSet;
+import se.kth.scs.partitioning.Vertex;
+
+/**
+ * The compact encoding of the vertex reads and writes, that a session uses
+ * after it is negotiated. The vertex IDs are sorted and each one is sent as a
+ * varint of its difference to the previous one, so the IDs of a window, which
+ * are close to each other, take one or two bytes instead of four. A degree is
+ * a varint. A replica set is a mask of one bit per partition if k fits in two
+ * bytes; otherwise it is the number of its partitions followed by their IDs,
+ * delta-coded, since a vertex has few replicas. Either takes a few bytes
+ * instead of two ints per 64 partitions.
+ *
+ * A list of IDs is its size followed by the IDs. A list of vertices is its
+ * size followed by, for every vertex, its ID, its degree and its replicas. The
+ * decoded vertices have the same layout of ints as the raw encoding, so the
+ * storage and the client handle both encodings the same way.
+ *
+ * It keeps a scratch buffer, so it belongs to a single session.
+ *
+ * @author Hooman
+ */
+public class CompactCodec {
+
+  private static final int MAX_VARINT = 5;
+  private final int nWords; // Number of words of a replica set in the raw encoding.
+  private final int maskBytes;
+  private final boolean sparse; // The replicas as a list instead of a mask.
+  private final long[] words;
+
+  /**
+   * @param k Number of partitions.
+   */
+  public CompactCodec(int k) {
+    this.nWords = ReplicaSet.words(k);
+    this.maskBytes = (k + 7) / 8;
+    this.sparse = maskBytes > 2;
+    this.words = new long[nWords];
+  }
+
+  /**
+   * @param ids
+   * @return the sorted IDs, encoded in a buffer that is ready to be written.
+   */
+  public ByteBuffer encodeIds(int[] ids) {
+    int[] sorted = Arrays.copyOf(ids, ids.length);
+    Arrays.sort(sorted);
+    ByteBuffer out = ByteBuffer.allocate(MAX_VARINT * (1 + sorted.length));
+    putVarint(out, sorted.length);
+    int previous = 0;
+    for (int id : sorted) {
+      putVarint(out, id - previous);
+      previous = id;
+    }
+    out.flip();
+    return out;
+  }
+
+  public int[] decodeIds(ByteBuffer in) {
+    int[] ids = new int[getVarint(in)];
+    int previous = 0;
+    for (int i = 0; i < ids.length; i++) {
+      previous += getVarint(in);
+      ids[i] = previous;
+    }
+    return ids;
+  }
+
+  /**
+   * Encodes vertices that are in the raw layout, sorted by their IDs.
+   *
+   * @param vertices ID, degree and the words of the replica set of every
+   * vertex.
+   * @return a buffer that is ready to be written.
+   */
+  public ByteBuffer encodeVertices(int[] vertices) {
+    int stride = Serializer.vertexSize(nWords);
+    int n = vertices.length / stride;
+    // The ID in the high half sorts the vertices, the offset is in the low half.
+    long[] order = new long[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = ((long) vertices[i * stride] << 32) | (i * stride);
+    }
+    Arrays.sort(order);
+    ByteBuffer out = ByteBuffer.allocate(recordsSize(n));
+    putVarint(out, n);
+    int previous = 0;
+    for (long o : order) {
+      int i = (int) o;
+      for (int w = 0; w < nWords; w++) {
+        words[w] = ((long) vertices[i + 2 + 2 * w] << 32) | (vertices[i + 3 + 2 * w] & 0xFFFFFFFFL);
+      }
+      out = putVertex(out, vertices[i] - previous, vertices[i + 1]);
+      previous = vertices[i];
+    }
+    out.flip();
+    return out;
+  }
+
+  /**
+   * Encodes the vertices of a read response, in their order.
+   *
+   * @param vertices
+   * @return a buffer that is ready to be written.
+   */
+  public ByteBuffer encodeVertices(List<Vertex> vertices) {
+    ByteBuffer out = ByteBuffer.allocate(recordsSize(vertices.size()));
+    putVarint(out, vertices.size());
+    int previous = 0;
+    for (Vertex v : vertices) {
+      for (int w = 0; w < nWords; w++) {
+        words[w] = v.getPartitions().word(w);
+      }
+      out = putVertex(out, v.getId() - previous, v.getpDegree());
+      previous = v.getId();
+    }
+    out.flip();
+    return out;
+  }
+
+  /**
+   * @param in
+   * @return the vertices in the raw layout.
+   */
+  public int[] decodeVertices(ByteBuffer in) {
+    int stride = Serializer.vertexSize(nWords);
+    int[] vertices = new int[getVarint(in) * stride];
+    int previous = 0;
+    for (int i = 0; i < vertices.length; i += stride) {
+      previous += getVarint(in);
+      vertices[i] = previous;
+      vertices[i + 1] = getVarint(in);
+      Arrays.fill(words, 0);
+      if (sparse) {
+        int p = 0;
+        for (int n = getVarint(in); n > 0; n--) {
+          p += getVarint(in);
+          words[p / 64] |= 1L << (p % 64);
+        }
+      } else {
+        for (int b = 0; b < maskBytes; b++) {
+          words[b / 8] |= (in.get() & 0xFFL) << (8 * (b % 8));
+        }
+      }
+      for (int w = 0; w < nWords; w++) {
+        vertices[i + 2 + 2 * w] = (int) (words[w] >>> 32);
+        vertices[i + 3 + 2 * w] = (int) words[w];
+      }
+    }
+    return vertices;
+  }
+
+  /**
+   * @return the initial size of a list of n vertices, that is enough if a
+   * vertex in a sparse set has a replica or two.
+   */
+  private int recordsSize(int n) {
+    return MAX_VARINT + n * (2 * MAX_VARINT + (sparse ? 3 : maskBytes));
+  }
+
+  /**
+   * Writes a vertex whose replica set is in the scratch words.
+   *
+   * @return the buffer, which is replaced by a larger one if it is full.
+   */
+  private ByteBuffer putVertex(ByteBuffer out, int idDelta, int degree) {
+    int n = 0;
+    if (sparse) {
+      for (long w : words) {
+        n += Long.bitCount(w);
+      }
+    }
+    int size = 2 * MAX_VARINT + (sparse ? MAX_VARINT * (1 + n) : maskBytes);
+    if (out.remaining() < size) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + size));
+      out.flip();
+      larger.put(out);
+      out = larger;
+    }
+    putVarint(out, idDelta);
+    putVarint(out, degree);
+    if (sparse) {
+      putVarint(out, n);
+      int previous = 0;
+      for (int w = 0; w < nWords; w++) {
+        for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+          int p = 64 * w + Long.numberOfTrailingZeros(bits);
+          putVarint(out, p - previous);
+          previous = p;
+        }
+      }
+    } else {
+      for (int b = 0; b < maskBytes; b++) {
+        out.put((byte) (words[b / 8] >>> (8 * (b % 8))));
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Writes an int as unsigned, seven bits per byte, the lowest first.
+   */
+  private static void putVarint(ByteBuffer out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  private static int getVarint(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0;; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package se.kth.scs.remote.messages;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reads and writes the messages of the protocol on a blocking socket channel,
+ * through two direct buffers that are reused for the whole connection. The
+ * ints of a payload are copied once, between the array and the direct buffer,
+ * and the channel reads and writes the direct buffers without a copy of its
+ * own.
+ *
+ * The writes stay in the output buffer until it is flushed, full, or a read
+ * has to wait for the channel. A payload
+ * that does not fit in the rest of the buffer is put in a separate direct
+ * buffer, which is also reused, and is written with what is buffered before
+ * it in a single gathering write.
+ *
+ * It is not thread-safe.
+ *
+ * @author Hooman
+ */
+public class FrameChannel implements Closeable {
+
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+  private final SocketChannel channel;
+  private final ByteBuffer in; // Between its position and limit are the unread bytes.
+  private final ByteBuffer out;
+  private ByteBuffer spill; // For the payloads that do not fit in out.
+  private final ByteBuffer[] gather = new ByteBuffer[2];
+
+  public FrameChannel(SocketChannel channel) {
+    this(channel, DEFAULT_BUFFER_SIZE);
+  }
+
+  public FrameChannel(SocketChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.in = ByteBuffer.allocateDirect(bufferSize);
+    this.in.flip();
+    this.out = ByteBuffer.allocateDirect(bufferSize);
+    this.spill = ByteBuffer.allocateDirect(0);
+  }
+
+  /**
+   * Reads from the channel until at least n bytes are unread. The buffered
+   * writes are flushed before it blocks, since the other side may be waiting
+   * for them before it sends anything.
+   *
+   * @param n At most the size of the buffer.
+   * @throws IOException
+   */
+  private void fill(int n) throws IOException {
+    if (in.remaining() >= n) {
+      return;
+    }
+    flush();
+    in.compact();
+    try {
+      while (in.position() < n) {
+        if (channel.read(in) < 0) {
+          throw new EOFException("The connection is closed by the other side.");
+        }
+      }
+    } finally {
+      in.flip();
+    }
+  }
+
+  /**
+   * Waits until some bytes can be read, for at most a timeout. The buffered
+   * writes are flushed first, as before a read.
+   *
+   * @param timeoutMillis
+   * @return false if nothing arrived before the timeout.
+   * @throws IOException
+   */
+  public boolean awaitInput(long timeoutMillis) throws IOException {
+    if (in.hasRemaining()) {
+      return true;
+    }
+    flush();
+    // The stream of the socket honours its timeout, unlike the channel.
+    Socket socket = channel.socket();
+    int b;
+    socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, Math.max(1, timeoutMillis)));
+    try {
+      b = socket.getInputStream().read();
+    } catch (SocketTimeoutException ex) {
+      return false;
+    } finally {
+      socket.setSoTimeout(0);
+    }
+    if (b < 0) {
+      throw new EOFException("The connection is closed by the other side.");
+    }
+    in.compact();
+    in.put((byte) b);
+    in.flip();
+    return true;
+  }
+
+  public byte readByte() throws IOException {
+    fill(1);
+    return in.get();
+  }
+
+  public int readInt() throws IOException {
+    fill(4);
+    return in.getInt();
+  }
+
+  /**
+   * Reads a payload that starts with its size in bytes.
+   *
+   * @return the ints of the payload.
+   * @throws IOException
+   */
+  public int[] readArray() throws IOException {
+    int size = readInt();
+    int[] array = new int[size / 4];
+    int n = 0;
+    while (n < array.length) {
+      fill(4);
+      int c = Math.min(array.length - n, in.remaining() / 4);
+      in.asIntBuffer().get(array, n, c);
+      in.position(in.position() + 4 * c);
+      n += c;
+    }
+    return array;
+  }
+
+  /**
+   * Reads a payload of bytes that starts with its size.
+   *
+   * @return a buffer of the payload.
+   * @throws IOException
+   */
+  public ByteBuffer readBytes() throws IOException {
+    int size = readInt();
+    ByteBuffer bytes = ByteBuffer.allocate(size);
+    while (bytes.hasRemaining()) {
+      fill(1);
+      int c = Math.min(bytes.remaining(), in.remaining());
+      int limit = in.limit();
+      in.limit(in.position() + c);
+      bytes.put(in);
+      in.limit(limit);
+    }
+    bytes.flip();
+    return bytes;
+  }
+
+  private void reserve(int n) throws IOException {
+    if (out.remaining() < n) {
+      flush();
+    }
+  }
+
+  public void writeByte(byte b) throws IOException {
+    reserve(1);
+    out.put(b);
+  }
+
+  public void writeInt(int i) throws IOException {
+    reserve(4);
+    out.putInt(i);
+  }
+
+  /**
+   * Writes the header of a request.
+   *
+   * @param type
+   * @param id
+   * @throws IOException
+   */
+  public void writeHeader(byte type, int id) throws IOException {
+    reserve(5);
+    out.put(type);
+    out.putInt(id);
+  }
+
+  /**
+   * Writes a payload, with its size in bytes in front of it.
+   *
+   * @param array
+   * @throws IOException
+   */
+  public void writeArray(int[] array) throws IOException {
+    writeInt(array.length * 4);
+    writeInts(array);
+  }
+
+  /**
+   * Writes the ints of an array, without their size.
+   *
+   * @param array
+   * @throws IOException
+   */
+  public void writeInts(int[] array) throws IOException {
+    int size = array.length * 4;
+    if (size > out.remaining() && size <= out.capacity() / 2) {
+      flush();
+    }
+    if (size <= out.remaining()) {
+      out.asIntBuffer().put(array);
+      out.position(out.position() + size);
+      return;
+    }
+    if (spill.capacity() < size) {
+      spill = ByteBuffer.allocateDirect(Math.max(size, 2 * spill.capacity()));
+    }
+    spill.clear();
+    spill.asIntBuffer().put(array);
+    spill.limit(size);
+    write(spill);
+  }
+
+  /**
+   * Writes a message that is built in a buffer, from its position to its
+   * limit.
+   *
+   * @param message
+   * @throws IOException
+   */
+  public void write(ByteBuffer message) throws IOException {
+    if (message.remaining() <= out.remaining()) {
+      out.put(message);
+      return;
+    }
+    // The buffered bytes and the message go in one system call.
+    out.flip();
+    gather[0] = out;
+    gather[1] = message;
+    try {
+      while (message.hasRemaining()) {
+        channel.write(gather);
+      }
+    } finally {
+      gather[1] = null;
+      out.clear();
+    }
+  }
+
+  /**
+   * Writes the buffered bytes on the channel.
+   *
+   * @throws IOException
+   */
+  public void flush() throws IOException {
+    out.flip();
+    try {
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+    } finally {
+      out.clear();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
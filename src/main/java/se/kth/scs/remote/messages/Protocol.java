@@ -20,5 +20,11 @@ public class Protocol {
   public final static byte CLEAR_ALL_BUT_DEGREE_REQUEST = 9;
   public final static byte WAIT_FOR_ALL_UPDATES_REQUEST = 10;
   public final static byte WAIT_FOR_ALL_UPDATES_RESPONSE = 11;
+  public final static byte SYNC_REQUEST = 12;
+  public final static byte SYNC_RESPONSE = 13;
+  public final static byte ENCODING_REQUEST = 14;
+  // The encodings of the vertices, that a session negotiates.
+  public final static int RAW_ENCODING = 0;
+  public final static int COMPACT_ENCODING = 1;
 
 }
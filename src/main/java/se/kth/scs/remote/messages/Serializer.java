@@ -1,134 +1,324 @@
 package se.kth.scs.remote.messages;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.LinkedList;
+import se.kth.scs.partitioning.ReplicaSet;
 import se.kth.scs.partitioning.Vertex;
 
 /**
+ * Every request starts with its type and a request ID chosen by the client,
+ * and every response starts with the ID of its request. So a client can have
+ * many requests in flight on one connection.
  *
  * @author Hooman
  */
 public class Serializer {
 
+  /**
+   * A vertex is sent as its ID, its degree and the words of its replica set,
+   * each word as two ints.
+   *
+   * @param nWords number of words of a replica set.
+   * @return number of ints of a vertex.
+   */
+  public static int vertexSize(int nWords) {
+    return 2 + 2 * nWords;
+  }
+
+  /**
+   * Writes the words of a replica set in an array of ints.
+   *
+   * @param array
+   * @param offset
+   * @param partitions
+   * @param nWords
+   */
+  public static void putReplicas(int[] array, int offset, ReplicaSet partitions, int nWords) {
+    for (int w = 0; w < nWords; w++) {
+      long bits = partitions.word(w);
+      array[offset + 2 * w] = (int) (bits >>> 32);
+      array[offset + 2 * w + 1] = (int) bits;
+    }
+  }
+
+  /**
+   * Reads the words of a replica set from an array of ints.
+   *
+   * @param array
+   * @param offset
+   * @param nWords
+   * @param into The words are added to this set.
+   * @return the set.
+   */
+  public static ReplicaSet getReplicas(int[] array, int offset, int nWords, ReplicaSet into) {
+    for (int w = 0; w < nWords; w++) {
+      into.addWord(w, ((long) array[offset + 2 * w] << 32) | (array[offset + 2 * w + 1] & 0xFFFFFFFFL));
+    }
+    return into;
+  }
+
   /**
    * 
    * @param input
    * @return
    * @throws IOException 
    */
-  public static int[] deserializeRequest(DataInputStream input) throws IOException {
-    int n = input.readInt();
-    byte[] buffer = readNexBytes(input, n);
-    IntBuffer intBuffer = ByteBuffer.wrap(buffer).asIntBuffer();
-    int[] array = new int[intBuffer.remaining()];
-    intBuffer.get(array);
-    return array;
+  public static int[] deserializeRequest(FrameChannel input) throws IOException {
+    return input.readArray();
   }
 
   /**
-   * 
+   * Writes a request with an array of ints. It does not flush the output.
+   *
    * @param output
    * @param type
+   * @param id
    * @param request
    * @throws IOException 
    */
-  public static void serializeRequest(DataOutputStream output, byte type, int[] request) throws IOException {
-    int size = request.length * 4;
-    byte[] bytes = new byte[size];
-    IntBuffer buffer = ByteBuffer.wrap(bytes).asIntBuffer();
-    for (int r : request) {
-      buffer.put(r);
-    }
+  public static void serializeRequest(FrameChannel output, byte type, int id, int[] request) throws IOException {
+    output.writeHeader(type, id);
+    output.writeArray(request);
+  }
 
-    write(output, type, size, bytes);
+  /**
+   * Writes a request with an encoded payload. It does not flush the output.
+   *
+   * @param output
+   * @param type
+   * @param id
+   * @param payload
+   * @throws IOException
+   */
+  public static void serializeRequest(FrameChannel output, byte type, int id, ByteBuffer payload) throws IOException {
+    output.writeHeader(type, id);
+    output.writeInt(payload.remaining());
+    output.write(payload);
   }
 
-  private static byte[] readNexBytes(DataInputStream input, int n) throws IOException {
-    byte[] buffer = new byte[n];
-    while (n > 0) {
-      n -= input.read(buffer, buffer.length - n, n);
-    }
+  /**
+   * Writes a response with an encoded payload. It does not flush the output.
+   *
+   * @param output
+   * @param id
+   * @param payload
+   * @throws IOException
+   */
+  public static void serializeEncodedResponse(FrameChannel output, int id, ByteBuffer payload) throws IOException {
+    output.writeInt(id);
+    output.writeInt(payload.remaining());
+    output.write(payload);
+  }
 
-    return buffer;
+  /**
+   * Builds a response with an encoded payload, with its size, in a buffer that
+   * is ready to be written.
+   *
+   * @param id
+   * @param payload
+   * @return
+   */
+  public static ByteBuffer encodedResponse(int id, ByteBuffer payload) {
+    ByteBuffer response = ByteBuffer.allocate(8 + payload.remaining());
+    response.putInt(id);
+    response.putInt(payload.remaining());
+    response.put(payload);
+    response.rewind();
+    return response;
   }
 
   /**
-   * 
+   * Writes a vertices-read response. It does not flush the output.
+   *
    * @param output
    * @param vertices
+   * @param nWords number of words of a replica set.
    * @throws IOException 
    */
-  public static void serializeVerticesReadResponse(DataOutputStream output, LinkedList<Vertex> vertices) throws IOException {
-    int size = vertices.size() * 3 * 4;
-    byte[] response = new byte[size];
-    IntBuffer buffer = ByteBuffer.wrap(response).asIntBuffer();
+  public static void serializeVerticesReadResponse(FrameChannel output, int id, LinkedList<Vertex> vertices, int nWords) throws IOException {
+    int[] record = new int[vertexSize(nWords)];
+    output.writeInt(id);
+    output.writeInt(vertices.size() * record.length * 4);
     for (Vertex v : vertices) {
-      buffer.put(v.getId());
-      buffer.put(v.getpDegree());
-      buffer.put(v.getPartitions());
+      record[0] = v.getId();
+      record[1] = v.getpDegree();
+      putReplicas(record, 2, v.getPartitions(), nWords);
+      output.writeInts(record);
     }
-    write(output, size, response);
+  }
+
+  /**
+   * Builds a vertices-read response, with its size, in a buffer that is ready
+   * to be written.
+   *
+   * @param id
+   * @param vertices
+   * @param nWords number of words of a replica set.
+   * @return
+   */
+  public static ByteBuffer verticesReadResponse(int id, LinkedList<Vertex> vertices, int nWords) {
+    int[] record = new int[vertexSize(nWords)];
+    int size = vertices.size() * record.length * 4;
+    ByteBuffer response = ByteBuffer.allocate(8 + size);
+    response.putInt(id);
+    response.putInt(size);
+    IntBuffer buffer = response.asIntBuffer();
+    for (Vertex v : vertices) {
+      record[0] = v.getId();
+      record[1] = v.getpDegree();
+      putReplicas(record, 2, v.getPartitions(), nWords);
+      buffer.put(record);
+    }
+    response.rewind();
+    return response;
   }
 
   /**
    * 
    * @param output
+   * @param id
    * @param edgeSizes
    * @throws IOException 
    */
-  public static void serializePartitionsReadResponse(DataOutputStream output, int[] edgeSizes) throws IOException {
-    int size = edgeSizes.length * 4;
-    byte[] response = new byte[size];
-    IntBuffer buffer = ByteBuffer.wrap(response).asIntBuffer();
-    for (int e : edgeSizes) {
-      buffer.put(e);
-    }
-    write(output, size, response);
+  public static void serializePartitionsReadResponse(FrameChannel output, int id, int[] edgeSizes) throws IOException {
+    output.writeInt(id);
+    output.writeArray(edgeSizes);
   }
 
-  private static void write(DataOutputStream output, byte type, int size, byte[] response) throws IOException {
-    output.writeByte(type);
-    output.writeInt(size);
-    output.write(response);
-    output.flush();
+  /**
+   * Builds a response of an array of ints, with its size, in a buffer that is
+   * ready to be written.
+   *
+   * @param id
+   * @param array
+   * @return
+   */
+  public static ByteBuffer arrayResponse(int id, int[] array) {
+    int size = array.length * 4;
+    ByteBuffer response = ByteBuffer.allocate(8 + size);
+    response.putInt(id);
+    response.putInt(size);
+    response.asIntBuffer().put(array);
+    response.rewind();
+    return response;
+  }
+
+  /**
+   * Builds the response to a wait-for-all-updates request.
+   *
+   * @param id
+   * @return
+   */
+  public static ByteBuffer waitResponse(int id) {
+    return ackResponse(id, Protocol.WAIT_FOR_ALL_UPDATES_RESPONSE);
   }
 
-  private static void write(DataOutputStream output, int size, byte[] response) throws IOException {
-    output.writeInt(size);
-    output.write(response);
-    output.flush();
+  /**
+   * Builds the response to a sync request.
+   *
+   * @param id
+   * @return
+   */
+  public static ByteBuffer syncResponse(int id) {
+    return ackResponse(id, Protocol.SYNC_RESPONSE);
+  }
+
+  private static ByteBuffer ackResponse(int id, byte type) {
+    ByteBuffer response = ByteBuffer.allocate(5);
+    response.putInt(id);
+    response.put(type);
+    response.rewind();
+    return response;
   }
 
   /**
    * 
    * @param output
-   * @param array
+   * @param id
    * @throws IOException 
    */
-  public static void serializeAllVerticesReadResponse(DataOutputStream output, int[] array) throws IOException {
-    // this is a reduntant version of serializeVerticesReadResponse but only not to duplicate the memory usage.
-    int size = array.length * 4;
-    byte[] response = new byte[size];
-    IntBuffer buffer = ByteBuffer.wrap(response).asIntBuffer();
-    for (int i = 0; i < array.length; i = i + 3) {
-      buffer.put(array[i]);
-      buffer.put(array[i + 1]);
-      buffer.put(array[i + 2]);
-    }
-    write(output, size, response);
+  public static void serializeWaitResponse(FrameChannel output, int id) throws IOException {
+    output.writeInt(id);
+    output.writeByte(Protocol.WAIT_FOR_ALL_UPDATES_RESPONSE);
   }
 
   /**
    * 
-   * @param input
-   * @return
+   * @param output
+   * @param id
    * @throws IOException 
    */
-  public static int deserializeAllVerticesRequest(DataInputStream input) throws IOException {
-    return input.readInt();
+  public static void serializeSyncResponse(FrameChannel output, int id) throws IOException {
+    output.writeInt(id);
+    output.writeByte(Protocol.SYNC_RESPONSE);
+  }
+
+  /**
+   * 
+   * @param output
+   * @param id
+   * @param array
+   * @throws IOException 
+   */
+  public static void serializeAllVerticesReadResponse(FrameChannel output, int id, int[] array) throws IOException {
+    output.writeInt(id);
+    output.writeArray(array);
+  }
+
+  /**
+   * Writes the response to an encoding request: the accepted encoding and the
+   * number of partitions. It does not flush the output.
+   *
+   * @param output
+   * @param id
+   * @param encoding
+   * @param k
+   * @throws IOException
+   */
+  public static void serializeEncodingResponse(FrameChannel output, int id, int encoding, int k) throws IOException {
+    output.writeInt(id);
+    output.writeArray(new int[]{encoding, k});
+  }
+
+  /**
+   * Builds the response to an encoding request.
+   *
+   * @param id
+   * @param encoding
+   * @param k
+   * @return
+   */
+  public static ByteBuffer encodingResponse(int id, int encoding, int k) {
+    return arrayResponse(id, new int[]{encoding, k});
+  }
+
+  /**
+   * Reads an encoded payload of a request from a buffer.
+   *
+   * @param buffer
+   * @param size Size of the payload in bytes.
+   * @return a view of the payload, that is valid until the buffer changes.
+   */
+  public static ByteBuffer deserializeEncoded(ByteBuffer buffer, int size) {
+    ByteBuffer payload = buffer.slice();
+    payload.limit(size);
+    buffer.position(buffer.position() + size);
+    return payload;
+  }
+
+  /**
+   * Reads an array of ints of a request from a buffer.
+   *
+   * @param buffer
+   * @param size Size of the array in bytes.
+   * @return
+   */
+  public static int[] deserializeRequest(ByteBuffer buffer, int size) {
+    int[] array = new int[size / 4];
+    buffer.asIntBuffer().get(array);
+    buffer.position(buffer.position() + size);
+    return array;
   }
 }
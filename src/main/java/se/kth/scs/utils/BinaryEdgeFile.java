@@ -0,0 +1,226 @@
+package se.kth.scs.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import se.kth.scs.partitioning.Edge;
+
+/**
+ * A compact binary edge-list format. The file starts with a header of
+ * (magic, format, number of edges, number of vertices), followed by the edges.
+ * In the packed format every edge is a pair of ints. In the compressed format
+ * the source is delta-coded against the previous source and the destination
+ * against its source, both as zig-zag varints, which suits sorted and
+ * adjacency-ordered files. The edges of a binary file are unique and have no
+ * self-loops, so the header counts are the same as what the text reader
+ * computes.
+ *
+ * The reader walks the file through a mapped buffer and does not create any
+ * object per edge.
+ *
+ * @author Hooman
+ */
+public class BinaryEdgeFile implements Closeable {
+
+  public static final int MAGIC = 0x48564345; // "HVCE"
+  public static final int PACKED = 0;
+  public static final int COMPRESSED = 1;
+  private static final int HEADER_SIZE = 24;
+  private static final int MAX_EDGE_SIZE = 10;
+  // A single mapped buffer cannot exceed Integer.MAX_VALUE bytes.
+  private static final long MAP_SIZE = 1 << 30;
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final int format;
+  private final long nEdges;
+  private final long nVertices;
+  private MappedByteBuffer buffer;
+  private long bufferPosition;
+  private long remainingEdges;
+  private int src;
+  private int dst;
+
+  /**
+   * Opens a binary edge file to read.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public BinaryEdgeFile(String file) throws IOException {
+    raf = new RandomAccessFile(file, "r");
+    channel = raf.getChannel();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) {
+        close();
+        throw new IOException(String.format("File %s is not a binary edge file.", file));
+      }
+    }
+    header.flip();
+    if (header.getInt() != MAGIC) {
+      close();
+      throw new IOException(String.format("File %s is not a binary edge file.", file));
+    }
+    format = header.getInt();
+    nEdges = header.getLong();
+    nVertices = header.getLong();
+    remainingEdges = nEdges;
+    map(HEADER_SIZE);
+  }
+
+  /**
+   * Checks the magic number of a file.
+   *
+   * @param file
+   * @return true if it is a binary edge file.
+   * @throws IOException
+   */
+  public static boolean isBinary(String file) throws IOException {
+    try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+      return f.length() >= HEADER_SIZE && f.readInt() == MAGIC;
+    }
+  }
+
+  /**
+   * Writes the edges in the binary format.
+   *
+   * @param file
+   * @param edges Unique packed edges without self-loops.
+   * @param nVertices
+   * @param compressed
+   * @throws IOException
+   */
+  public static void write(String file, long[] edges, long nVertices, boolean compressed) throws IOException {
+    try (RandomAccessFile f = new RandomAccessFile(file, "rw");
+      FileChannel out = f.getChannel()) {
+      out.truncate(0);
+      ByteBuffer b = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+      b.putInt(MAGIC);
+      b.putInt(compressed ? COMPRESSED : PACKED);
+      b.putLong(edges.length);
+      b.putLong(nVertices);
+      int prevSrc = 0;
+      for (long e : edges) {
+        if (b.remaining() < MAX_EDGE_SIZE) {
+          flush(b, out);
+        }
+        int src = Edge.src(e);
+        int dst = Edge.dst(e);
+        if (compressed) {
+          putVarint(b, zigZag(src - prevSrc));
+          putVarint(b, zigZag(dst - src));
+          prevSrc = src;
+        } else {
+          b.putInt(src);
+          b.putInt(dst);
+        }
+      }
+      flush(b, out);
+    }
+  }
+
+  private static void flush(ByteBuffer b, FileChannel out) throws IOException {
+    b.flip();
+    while (b.hasRemaining()) {
+      out.write(b);
+    }
+    b.clear();
+  }
+
+  private static int zigZag(int n) {
+    return (n << 1) ^ (n >> 31);
+  }
+
+  private static int unZigZag(int n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  private static void putVarint(ByteBuffer b, int n) {
+    while ((n & ~0x7F) != 0) {
+      b.put((byte) ((n & 0x7F) | 0x80));
+      n >>>= 7;
+    }
+    b.put((byte) n);
+  }
+
+  private int getVarint() {
+    int n = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      n |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return n;
+  }
+
+  private void map(long position) throws IOException {
+    long size = Math.min(MAP_SIZE, channel.size() - position);
+    buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    bufferPosition = position;
+  }
+
+  /**
+   * Moves to the next edge.
+   *
+   * @return false if there is no more edge.
+   * @throws IOException
+   */
+  public boolean next() throws IOException {
+    if (remainingEdges == 0) {
+      return false;
+    }
+    if (buffer.remaining() < MAX_EDGE_SIZE) {
+      map(bufferPosition + buffer.position());
+    }
+    if (format == COMPRESSED) {
+      src = src + unZigZag(getVarint());
+      dst = src + unZigZag(getVarint());
+    } else {
+      src = buffer.getInt();
+      dst = buffer.getInt();
+    }
+    remainingEdges--;
+    return true;
+  }
+
+  /**
+   * @return the source of the current edge.
+   */
+  public int src() {
+    return src;
+  }
+
+  /**
+   * @return the destination of the current edge.
+   */
+  public int dst() {
+    return dst;
+  }
+
+  /**
+   * @return the nEdges
+   */
+  public long getnEdges() {
+    return nEdges;
+  }
+
+  /**
+   * @return the nVertices
+   */
+  public long getnVertices() {
+    return nVertices;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    raf.close();
+  }
+}
@@ -8,22 +8,62 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import se.kth.scs.partitioning.Edge;
 
 /**
+ * Converts graph files between the formats supported by HoVerCut. The input
+ * is either an adjacency list, where every line is a vertex followed by its
+ * neighbours, or an edge list. The output is either a text edge list, or a
+ * binary edge file that is packed or compressed.
+ *
+ * Usage: input output [adjacency|edges] [text|binary|compressed] [delimiter]
+ *
+ * The delimiter of the input is a regular expression, any whitespace by
+ * default, so both the space and the tab separated lists are read.
  *
  * @author Hooman
  */
 public class EdgeFileMaker {
 
-  private static final String INPUT_DELIMITER = " ";
+  public static final String ADJACENCY = "adjacency";
+  public static final String EDGES = "edges";
+  public static final String TEXT = "text";
+  public static final String BINARY = "binary";
+  public static final String COMPRESSED = "compressed";
+  private static final String INPUT_DELIMITER = "\\s+";
   private static final String OUTPUT_DELIMITER = "\t";
 
   public static void main(String args[]) throws FileNotFoundException, IOException {
     String input = args[0];
     String output = args[1];
+    String inputFormat = args.length > 2 ? args[2] : ADJACENCY;
+    String outputFormat = args.length > 3 ? args[3] : TEXT;
+    String delimiter = args.length > 4 ? args[4] : INPUT_DELIMITER;
 
 //    String input = "/home/ganymedian/Desktop/kdd-results/samples/g220";
 //    String output = "/home/ganymedian/Desktop/kdd-results/samples/graph220.txt";
+    if (outputFormat.equals(TEXT)) {
+      if (!inputFormat.equals(ADJACENCY)) {
+        throw new IllegalArgumentException("Only an adjacency list can be converted to a text edge list.");
+      }
+      adjacencyToText(input, output, delimiter);
+    } else if (outputFormat.equals(BINARY) || outputFormat.equals(COMPRESSED)) {
+      boolean compressed = outputFormat.equals(COMPRESSED);
+      if (inputFormat.equals(ADJACENCY)) {
+        adjacencyToBinary(input, output, compressed, delimiter);
+      } else if (inputFormat.equals(EDGES)) {
+        EdgeFileReader reader = new EdgeFileReader(delimiter);
+        long[] edges = reader.read(input);
+        BinaryEdgeFile.write(output, edges, reader.getnVertices(), compressed);
+      } else {
+        throw new IllegalArgumentException(String.format("Input format %s is not supported!", inputFormat));
+      }
+    } else {
+      throw new IllegalArgumentException(String.format("Output format %s is not supported!", outputFormat));
+    }
+  }
+
+  private static void adjacencyToText(String input, String output, String delimiter) throws FileNotFoundException, IOException {
     InputStreamReader isr;
     try (PrintWriter writer = new PrintWriter(new FileOutputStream(new File(output)))) {
       FileInputStream fis = new FileInputStream(new File(input));
@@ -31,7 +71,7 @@ public class EdgeFileMaker {
       BufferedReader in = new BufferedReader(isr);
       String line;
       while ((line = in.readLine()) != null) {
-        String[] vertices = line.split(INPUT_DELIMITER);
+        String[] vertices = line.split(delimiter);
         String src = vertices[0];
         for (int i = 1; i < vertices.length; i++) {
           StringBuilder sb = new StringBuilder();
@@ -43,4 +83,31 @@ public class EdgeFileMaker {
     }
     isr.close();
   }
+
+  /**
+   * Removes self-loops and duplicate edges of an adjacency list, the same way
+   * EdgeFileReader does, and writes the edges in the binary format.
+   */
+  private static void adjacencyToBinary(String input, String output, boolean compressed, String delimiter) throws IOException {
+    LongHashSet unique = new LongHashSet();
+    LongArrayList edges = new LongArrayList();
+    IntHashSet vertices = new IntHashSet();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(input))))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] ids = line.split(delimiter);
+        int src = Integer.parseInt(ids[0]);
+        for (int i = 1; i < ids.length; i++) {
+          int dst = Integer.parseInt(ids[i]);
+          long e = Edge.pack(src, dst);
+          if (src != dst && unique.add(e)) {
+            edges.add(e);
+            vertices.add(src);
+            vertices.add(dst);
+          }
+        }
+      }
+    }
+    BinaryEdgeFile.write(output, edges.toArray(), vertices.size(), compressed);
+  }
 }
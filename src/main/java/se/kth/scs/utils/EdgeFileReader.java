@@ -5,40 +5,62 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import se.kth.scs.partitioning.Edge;
 
 /**
- * A Utility to read graph edges separated with a specific delimiters.
+ * A Utility to read graph edges separated with a specific delimiters. The
+ * edges are returned as canonical packed longs (see Edge.pack) in primitive
+ * arrays, and duplicates are removed with a primitive hash set.
  *
  * @author Hooman
  */
 public class EdgeFileReader {
 
-  private final String DEFAULT_DELIMITER = "\t";
+  private static final String DEFAULT_DELIMITER = "\t";
   private final String COMMENT = "#";
   private final String delimiter;
+  private final int nReaders;
   private int nEdges;
   private int nVertices;
 
   public EdgeFileReader() {
-    this.delimiter = DEFAULT_DELIMITER;
+    this(DEFAULT_DELIMITER);
   }
 
   public EdgeFileReader(String delimiter) {
+    this(delimiter, 1);
+  }
+
+  /**
+   * @param delimiter
+   * @param nReaders If it's more than one, the file is memory-mapped and parsed
+   * by this number of threads, and the delimiter is taken literally instead of
+   * as a regular expression.
+   */
+  public EdgeFileReader(String delimiter, int nReaders) {
     this.delimiter = delimiter;
+    this.nReaders = nReaders;
   }
 
-  public LinkedHashSet<Edge> read(String file) {
-    HashSet<Integer> vertices = new HashSet<>();
-    LinkedHashSet<Edge> edges = new LinkedHashSet<>();
-//    HashMap<Integer, Integer> degrees = new HashMap<>();
+  /**
+   * Reads the unique edges of a file in the order they appear.
+   *
+   * @param file
+   * @return packed edges.
+   */
+  public long[] read(String file) {
+    if (isBinary(file)) {
+      return readBinary(file);
+    }
+    if (nReaders > 1) {
+      return readMapped(file);
+    }
+    IntHashSet vertices = new IntHashSet();
+    LongHashSet unique = new LongHashSet();
+    LongArrayList edges = new LongArrayList();
     try {
       FileInputStream fis = new FileInputStream(new File(file));
       InputStreamReader isr = new InputStreamReader(fis);
@@ -51,29 +73,7 @@ public class EdgeFileReader {
           String values[] = line.split(delimiter);
           int u = Integer.parseInt(values[0]);
           int v = Integer.parseInt(values[1]);
-          if (u != v) {
-            Edge e = new Edge(u, v);
-
-            if (edges.add(e)) {
-              nEdges++;
-            }
-
-            if (vertices.add(u)) {
-              nVertices++;
-            }
-            if (vertices.add(v)) {
-              nVertices++;
-            }
-//
-//            if (!degrees.containsKey(u)) {
-//              degrees.put(u, 0);
-//            }
-//            degrees.put(u, degrees.get(u) + 1);
-//            if (!degrees.containsKey(v)) {
-//              degrees.put(v, 0);
-//            }
-//            degrees.put(v, degrees.get(v) + 1);
-          }
+          addEdge(u, v, unique, edges, vertices);
         }
       }
     } catch (IOException ex) {
@@ -84,53 +84,234 @@ public class EdgeFileReader {
     System.out.println(String.format("Number of vertices: %d", nVertices));
     System.out.println(String.format("Number of edges: %d", nEdges));
 
-    return edges;
+    return edges.toArray();
   }
 
-  public LinkedHashSet[] readSplitFile(String file, int nSplit, boolean shuffle, long seed) {
-    LinkedHashSet<Edge> allEdges = read(file);
-    nEdges = allEdges.size();
-    LinkedHashSet<Edge>[] splits = new LinkedHashSet[nSplit];
-    int splitSize = allEdges.size() / nSplit + 1;
-    Iterator<Edge> it;
-    if (shuffle) {
-      List<Edge> shuffled = new ArrayList<>(allEdges);
-      Collections.shuffle(shuffled, new Random(seed));
-      it = shuffled.iterator();
-    } else {
-      it = allEdges.iterator();
+  /**
+   * Parses a memory-mapped file in parallel and then merges the parsed ranges in
+   * the order of the file, so the result is the same as the sequential reader.
+   *
+   * @param file
+   * @return packed edges.
+   */
+  public long[] readMapped(String file) {
+    IntHashSet vertices = new IntHashSet();
+    LongHashSet unique = new LongHashSet();
+    LongArrayList edges = new LongArrayList();
+    try {
+      List<int[]> ranges = new MappedEdgeParser(COMMENT.charAt(0), delimiter, nReaders).parse(file);
+      for (int[] pairs : ranges) {
+        for (int i = 0; i < pairs.length; i = i + 2) {
+          addEdge(pairs[i], pairs[i + 1], unique, edges, vertices);
+        }
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      System.exit(-1);
     }
-    int j = -1;
-    int i = 0;
-    while (it.hasNext()) {
-      Edge e = it.next();
-      if (i % splitSize == 0) {
-        j++;
-        splits[j] = new LinkedHashSet<>();
+
+    System.out.println(String.format("Number of vertices: %d", nVertices));
+    System.out.println(String.format("Number of edges: %d", nEdges));
+
+    return edges.toArray();
+  }
+
+  /**
+   * Streams the edges of a file to the queue of the subpartitioners without
+   * keeping them in memory. The reader blocks when the queue is full. Only the
+   * set of vertex IDs is kept to count the vertices, so duplicate edges are not
+   * removed. A binary file is streamed with the counts of its header. The queue
+   * is closed at the end of the file.
+   *
+   * @param file
+   * @param queue
+   * @param batchSize
+   */
+  public void stream(String file, EdgeQueue queue, int batchSize) {
+    IntHashSet vertices = new IntHashSet();
+    long[] batch = new long[batchSize];
+    int n = 0;
+    try {
+      if (isBinary(file)) {
+        streamBinary(file, queue, batchSize);
+        return;
+      }
+      FileInputStream fis = new FileInputStream(new File(file));
+      InputStreamReader isr = new InputStreamReader(fis);
+      try (BufferedReader in = new BufferedReader(isr)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.startsWith(COMMENT)) {
+            continue;
+          } //skip comments
+          String values[] = line.split(delimiter);
+          int u = Integer.parseInt(values[0]);
+          int v = Integer.parseInt(values[1]);
+          if (u == v) {
+            continue;
+          }
+          batch[n] = Edge.pack(u, v);
+          n++;
+          nEdges++;
+          if (vertices.add(u)) {
+            nVertices++;
+          }
+          if (vertices.add(v)) {
+            nVertices++;
+          }
+          if (n == batchSize) {
+            queue.put(batch);
+            batch = new long[batchSize];
+            n = 0;
+          }
+        }
       }
-      splits[j].add(e);
-      i++;
+      queue.put(Arrays.copyOf(batch, n));
+      queue.close();
+    } catch (IOException | InterruptedException ex) {
+      ex.printStackTrace();
+      System.exit(-1);
     }
-    return splits;
+
+    System.out.println(String.format("Number of vertices: %d", nVertices));
+    System.out.println(String.format("Number of edges: %d", nEdges));
   }
 
-  public static LinkedHashSet<Edge>[] resplit(LinkedHashSet<Edge>[] splits, int nSplit, int eSize) {
-    LinkedHashSet<Edge>[] newSplits = new LinkedHashSet[nSplit];
-    int splitSize = eSize / nSplit + 1;
-    int j = -1;
-    int i = 0;
-    for (LinkedHashSet<Edge> l : splits) {
-      for (Edge e : l) {
-        if (i % splitSize == 0) {
-          j++;
-          newSplits[j] = new LinkedHashSet<>();
+  private void streamBinary(String file, EdgeQueue queue, int batchSize) throws IOException, InterruptedException {
+    long[] batch = new long[batchSize];
+    int n = 0;
+    try (BinaryEdgeFile in = new BinaryEdgeFile(file)) {
+      nEdges = count(in.getnEdges(), "edges");
+      nVertices = count(in.getnVertices(), "vertices");
+      while (in.next()) {
+        batch[n] = Edge.pack(in.src(), in.dst());
+        n++;
+        if (n == batchSize) {
+          queue.put(batch);
+          batch = new long[batchSize];
+          n = 0;
         }
-        newSplits[j].add(e);
+      }
+    }
+    queue.put(Arrays.copyOf(batch, n));
+    queue.close();
+    System.out.println(String.format("Number of vertices: %d", nVertices));
+    System.out.println(String.format("Number of edges: %d", nEdges));
+  }
+
+  /**
+   * Loads a binary edge file through a mapped buffer. The file has unique edges
+   * without self-loops, and the counts come from its header.
+   *
+   * @param file
+   * @return packed edges.
+   */
+  public long[] readBinary(String file) {
+    long[] edges = null;
+    try (BinaryEdgeFile in = new BinaryEdgeFile(file)) {
+      nEdges = count(in.getnEdges(), "edges");
+      nVertices = count(in.getnVertices(), "vertices");
+      edges = new long[nEdges];
+      int i = 0;
+      while (in.next()) {
+        edges[i] = Edge.pack(in.src(), in.dst());
         i++;
       }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      System.exit(-1);
     }
 
-    return newSplits;
+    System.out.println(String.format("Number of vertices: %d", nVertices));
+    System.out.println(String.format("Number of edges: %d", nEdges));
+
+    return edges;
+  }
+
+  /**
+   * @return a count of the header of a binary file.
+   * @throws IOException if it does not fit in an int.
+   */
+  private static int count(long n, String what) throws IOException {
+    if (n < 0 || n > Integer.MAX_VALUE) {
+      throw new IOException(String.format("The file has %d %s, which is more than can be loaded.", n, what));
+    }
+    return (int) n;
+  }
+
+  private boolean isBinary(String file) {
+    try {
+      return BinaryEdgeFile.isBinary(file);
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      System.exit(-1);
+    }
+    return false;
+  }
+
+  private void addEdge(int u, int v, LongHashSet unique, LongArrayList edges, IntHashSet vertices) {
+    if (u != v) {
+      long e = Edge.pack(u, v);
+
+      if (unique.add(e)) {
+        edges.add(e);
+        nEdges++;
+      }
+
+      if (vertices.add(u)) {
+        nVertices++;
+      }
+      if (vertices.add(v)) {
+        nVertices++;
+      }
+    }
+  }
+
+  public long[][] readSplitFile(String file, int nSplit, boolean shuffle, long seed) {
+    long[] allEdges = read(file);
+    nEdges = allEdges.length;
+    if (shuffle) {
+      // The same permutation as Collections.shuffle with the same seed.
+      Random random = new Random(seed);
+      for (int i = allEdges.length; i > 1; i--) {
+        int j = random.nextInt(i);
+        long t = allEdges[i - 1];
+        allEdges[i - 1] = allEdges[j];
+        allEdges[j] = t;
+      }
+    }
+    return split(allEdges, nSplit);
+  }
+
+  public static long[][] resplit(long[][] splits, int nSplit, int eSize) {
+    long[] allEdges = new long[eSize];
+    int i = 0;
+    for (long[] l : splits) {
+      System.arraycopy(l, 0, allEdges, i, l.length);
+      i += l.length;
+    }
+
+    return split(allEdges, nSplit);
+  }
+
+  /**
+   * Cuts the edges into contiguous splits of the same size, except the last
+   * ones.
+   *
+   * @param edges
+   * @param nSplit
+   * @return
+   */
+  public static long[][] split(long[] edges, int nSplit) {
+    long[][] splits = new long[nSplit][];
+    int splitSize = edges.length / nSplit + 1;
+    for (int j = 0; j < nSplit; j++) {
+      int from = Math.min(edges.length, j * splitSize);
+      int to = Math.min(edges.length, from + splitSize);
+      splits[j] = Arrays.copyOfRange(edges, from, to);
+    }
+
+    return splits;
   }
 
   /**
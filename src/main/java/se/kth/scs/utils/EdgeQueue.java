@@ -0,0 +1,114 @@
+package se.kth.scs.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import se.kth.scs.partitioning.EdgeSource;
+
+/**
+ * A bounded queue of packed edges between the file reader and the
+ * subpartitioners. The reader puts batches of edges and blocks when the queue
+ * is full. The subpartitioners share the queue, and each of them takes the next
+ * batch as soon as it is idle, so a slow subpartitioner does not hold up the
+ * reader. It can be consumed only once. If the consumers fail, the queue is
+ * aborted, so the reader does not wait forever for room in it.
+ *
+ * @author Hooman
+ */
+public class EdgeQueue {
+
+  private static final long[] END = new long[0];
+  private final BlockingQueue<long[]> batches;
+  private volatile boolean aborted = false;
+
+  /**
+   * @param capacity Maximum number of batches that are waiting in the queue.
+   */
+  public EdgeQueue(int capacity) {
+    this.batches = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /**
+   * @param batch
+   * @throws InterruptedException
+   * @throws IllegalStateException if the queue is aborted.
+   */
+  public void put(long[] batch) throws InterruptedException {
+    if (batch.length > 0) {
+      checkAborted();
+      batches.put(batch);
+    }
+  }
+
+  /**
+   * Tells the consumers that no more edges will arrive.
+   *
+   * @throws InterruptedException
+   * @throws IllegalStateException if the queue is aborted.
+   */
+  public void close() throws InterruptedException {
+    checkAborted();
+    batches.put(END);
+  }
+
+  /**
+   * Drops the waiting batches and makes the next put of the reader fail. A
+   * put that is blocked on a full queue returns, since the queue is emptied.
+   */
+  public void abort() {
+    aborted = true;
+    batches.clear();
+  }
+
+  private void checkAborted() {
+    if (aborted) {
+      throw new IllegalStateException("The consumers of the edges have stopped.");
+    }
+  }
+
+  /**
+   * @param n
+   * @return n sources, one for each subpartitioner, that take the batches of
+   * this queue.
+   */
+  public EdgeSource[] consumers(int n) {
+    EdgeSource[] consumers = new EdgeSource[n];
+    for (int i = 0; i < n; i++) {
+      consumers[i] = new Consumer();
+    }
+    return consumers;
+  }
+
+  private class Consumer implements EdgeSource {
+
+    private long[] batch = null;
+    private int i = 0;
+
+    @Override
+    public int next(long[] buffer, int offset, int max) {
+      int n = 0;
+      while (n < max && batch != END) {
+        if (batch == null || i == batch.length) {
+          try {
+            batch = batches.take();
+            i = 0;
+            if (batch == END) {
+              // Leaves the end for the other consumers. Nothing is put after
+              // the end and only one end is in the queue, so the slot it was
+              // taken from is still free and this does not block.
+              batches.offer(END);
+            }
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            batch = END;
+          }
+          continue;
+        }
+        int c = Math.min(max - n, batch.length - i);
+        System.arraycopy(batch, i, buffer, offset + n, c);
+        i += c;
+        n += c;
+      }
+      return n;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package se.kth.scs.utils;
+
+/**
+ * A set of primitive ints with open addressing and linear probing. It does
+ * not box the keys, and is not thread-safe.
+ *
+ * The table is split into segments by the high bits of the hash, and every
+ * segment grows on its own, so the set is not limited by the size of an array
+ * and a resize only copies one segment.
+ *
+ * @author Hooman
+ */
+public class IntHashSet {
+
+  private static final int SEGMENT_BITS = 6;
+  private static final int MIN_SEGMENT_CAPACITY = 8;
+  private static final int MAX_SEGMENT_CAPACITY = 1 << 30; // The largest power of two of an array.
+  private final int[][] keys = new int[1 << SEGMENT_BITS][];
+  private final int[] sizes = new int[1 << SEGMENT_BITS];
+  private boolean hasZero = false; // Zero marks the empty slots.
+  private long size = 0;
+
+  public IntHashSet() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize The set is sized for it, with a load factor of 0.5.
+   */
+  public IntHashSet(long expectedSize) {
+    long perSegment = Math.max(MIN_SEGMENT_CAPACITY, (2 * expectedSize) >>> SEGMENT_BITS);
+    int capacity = (int) Math.min(MAX_SEGMENT_CAPACITY, Long.highestOneBit(perSegment - 1) << 1);
+    for (int s = 0; s < keys.length; s++) {
+      keys[s] = new int[capacity];
+    }
+  }
+
+  static long hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  private static int segment(long h) {
+    return (int) (h >>> (64 - SEGMENT_BITS));
+  }
+
+  /**
+   * @param key
+   * @return true if the key did not exist.
+   * @throws IllegalStateException if the set is full.
+   */
+  public boolean add(int key) {
+    if (key == 0) {
+      if (hasZero) {
+        return false;
+      }
+      hasZero = true;
+      size++;
+      return true;
+    }
+    long h = hash(key);
+    int s = segment(h);
+    int[] table = keys[s];
+    int mask = table.length - 1;
+    int i = (int) h & mask;
+    while (table[i] != 0) {
+      if (table[i] == key) {
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+    if (sizes[s] >= table.length / 2) {
+      table = grow(s);
+      i = free(table, h);
+    }
+    table[i] = key;
+    sizes[s]++;
+    size++;
+    return true;
+  }
+
+  public boolean contains(int key) {
+    if (key == 0) {
+      return hasZero;
+    }
+    long h = hash(key);
+    int[] table = keys[segment(h)];
+    int mask = table.length - 1;
+    int i = (int) h & mask;
+    while (table[i] != 0) {
+      if (table[i] == key) {
+        return true;
+      }
+      i = (i + 1) & mask;
+    }
+    return false;
+  }
+
+  private int[] grow(int s) {
+    int[] old = keys[s];
+    if (old.length == MAX_SEGMENT_CAPACITY) {
+      throw new IllegalStateException(String.format("The set is full with %d keys.", size));
+    }
+    int[] table = new int[old.length * 2];
+    for (int key : old) {
+      if (key != 0) {
+        table[free(table, hash(key))] = key;
+      }
+    }
+    keys[s] = table;
+    return table;
+  }
+
+  /**
+   * @return the first empty slot for a hash.
+   */
+  private static int free(int[] table, long h) {
+    int mask = table.length - 1;
+    int i = (int) h & mask;
+    while (table[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  public long size() {
+    return size;
+  }
+}
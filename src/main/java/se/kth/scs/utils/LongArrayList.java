@@ -0,0 +1,76 @@
+package se.kth.scs.utils;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive longs.
+ *
+ * @author Hooman
+ */
+public class LongArrayList {
+
+  // Some virtual machines can not allocate an array of Integer.MAX_VALUE elements.
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+  private long[] elements;
+  private int size = 0;
+
+  public LongArrayList() {
+    this(16);
+  }
+
+  public LongArrayList(int capacity) {
+    elements = new long[Math.max(1, capacity)];
+  }
+
+  public void add(long e) {
+    if (size == elements.length) {
+      grow(size + 1L);
+    }
+    elements[size] = e;
+    size++;
+  }
+
+  public void addAll(long[] es, int from, int to) {
+    int n = to - from;
+    if (size + n > elements.length) {
+      grow((long) size + n);
+    }
+    System.arraycopy(es, from, elements, size, n);
+    size += n;
+  }
+
+  /**
+   * Doubles the capacity, or more if needed, up to MAX_CAPACITY.
+   *
+   * @throws IllegalStateException if needed is more than MAX_CAPACITY.
+   */
+  private void grow(long needed) {
+    if (needed > MAX_CAPACITY) {
+      throw new IllegalStateException(String.format("The list can not hold %d elements.", needed));
+    }
+    elements = Arrays.copyOf(elements, (int) Math.min(MAX_CAPACITY, Math.max(needed, 2L * size)));
+  }
+
+  public long get(int i) {
+    return elements[i];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * @return a copy of the elements.
+   */
+  public long[] toArray() {
+    return Arrays.copyOf(elements, size);
+  }
+}
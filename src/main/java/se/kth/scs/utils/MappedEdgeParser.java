@@ -0,0 +1,241 @@
+package se.kth.scs.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses an edge file by memory-mapping it and scanning byte ranges in
+ * parallel. The file is cut into ranges at newline boundaries and every range
+ * is parsed into a flat array of (src, dst) pairs. A line is the source, the
+ * delimiter and the destination, optionally followed by more columns; the
+ * delimiter is taken literally. Lines starting with the comment character and
+ * empty lines are skipped. A malformed line, or an ID that does not fit in an
+ * int, fails the parse as in the sequential reader.
+ *
+ * @author Hooman
+ */
+public class MappedEdgeParser {
+
+  // A single mapped buffer cannot exceed Integer.MAX_VALUE bytes.
+  private static final long MAX_RANGE_SIZE = 1 << 30;
+  private static final byte NEW_LINE = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+  private final byte comment;
+  private final byte[] delimiter;
+  private final int nThreads;
+
+  public MappedEdgeParser(char comment, String delimiter, int nThreads) {
+    this.comment = (byte) comment;
+    this.delimiter = delimiter.getBytes(StandardCharsets.UTF_8);
+    this.nThreads = nThreads;
+    if (this.delimiter.length == 0) {
+      throw new IllegalArgumentException("The delimiter is empty.");
+    }
+  }
+
+  /**
+   * Parses the file and returns one array of pairs per range, in the order the
+   * ranges appear in the file.
+   *
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public List<int[]> parse(String file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+      FileChannel channel = raf.getChannel()) {
+      long[] bounds = findRanges(channel);
+      ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+      try {
+        List<Future<int[]>> futures = new ArrayList<>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; i++) {
+          futures.add(executor.submit(new RangeTask(channel, bounds[i], bounds[i + 1])));
+        }
+        List<int[]> ranges = new ArrayList<>(futures.size());
+        for (Future<int[]> f : futures) {
+          ranges.add(f.get());
+        }
+        return ranges;
+      } catch (ExecutionException ex) {
+        if (ex.getCause() instanceof IOException) {
+          throw (IOException) ex.getCause();
+        }
+        throw new IOException(ex);
+      } catch (InterruptedException ex) {
+        throw new IOException(ex);
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Splits the file into ranges that start right after a new line.
+   */
+  private long[] findRanges(FileChannel channel) throws IOException {
+    long size = channel.size();
+    int nRanges = (int) Math.max(nThreads, (size + MAX_RANGE_SIZE - 1) / MAX_RANGE_SIZE);
+    long[] bounds = new long[nRanges + 1];
+    int n = 1;
+    for (int i = 1; i < nRanges; i++) {
+      long b = nextLineStart(channel, size * i / nRanges, size);
+      if (b > bounds[n - 1]) {
+        bounds[n] = b;
+        n++;
+      }
+    }
+    if (size > bounds[n - 1]) {
+      bounds[n] = size;
+      n++;
+    }
+    return Arrays.copyOf(bounds, n);
+  }
+
+  private long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+    if (position == 0) {
+      return 0;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    // Start one byte earlier, so a range that already starts a line stays as it is.
+    long p = position - 1;
+    while (p < size) {
+      buffer.clear();
+      int read = channel.read(buffer, p);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == NEW_LINE) {
+          return p + i + 1;
+        }
+      }
+      p += read;
+    }
+    return size;
+  }
+
+  private class RangeTask implements Callable<int[]> {
+
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private int position;
+
+    RangeTask(FileChannel channel, long start, long end) {
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int[] call() throws IOException {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      int limit = buffer.limit();
+      // A rough guess of 12 bytes per line avoids most of the resizes.
+      int[] pairs = new int[Math.max(16, limit / 6)];
+      int n = 0;
+      int i = 0;
+      while (i < limit) {
+        byte b = buffer.get(i);
+        if (b == comment) {
+          i = skipLine(buffer, i, limit);
+          continue;
+        }
+        if (b == NEW_LINE || b == CARRIAGE_RETURN) {
+          i++;
+          continue;
+        }
+        int u = nextInt(buffer, i, limit);
+        if (!isDelimiter(buffer, position, limit)) {
+          throw malformed(i);
+        }
+        int v = nextInt(buffer, position + delimiter.length, limit);
+        if (!isLineEnd(buffer, position, limit) && !isDelimiter(buffer, position, limit)) {
+          throw malformed(i);
+        }
+        if (n + 2 > pairs.length) {
+          pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[n] = u;
+        pairs[n + 1] = v;
+        n += 2;
+        i = skipLine(buffer, position, limit);
+      }
+
+      return Arrays.copyOf(pairs, n);
+    }
+
+    /**
+     * Parses the integer that starts at i, and leaves the position right after
+     * its last digit.
+     *
+     * @throws IOException if there is no integer at i or it overflows an int.
+     */
+    private int nextInt(MappedByteBuffer buffer, int i, int limit) throws IOException {
+      int first = i;
+      boolean negative = i < limit && buffer.get(i) == '-';
+      if (negative) {
+        i++;
+      }
+      long max = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+      long value = 0;
+      int digits = 0;
+      while (i < limit) {
+        byte b = buffer.get(i);
+        if (b < '0' || b > '9') {
+          break;
+        }
+        value = value * 10 + (b - '0');
+        if (value > max) {
+          throw new IOException(String.format("The vertex ID at byte %d does not fit in an int.", start + first));
+        }
+        digits++;
+        i++;
+      }
+      if (digits == 0) {
+        throw malformed(first);
+      }
+      position = i;
+      return (int) (negative ? -value : value);
+    }
+
+    private boolean isDelimiter(MappedByteBuffer buffer, int i, int limit) {
+      if (i + delimiter.length > limit) {
+        return false;
+      }
+      for (int d = 0; d < delimiter.length; d++) {
+        if (buffer.get(i + d) != delimiter[d]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean isLineEnd(MappedByteBuffer buffer, int i, int limit) {
+      return i == limit || buffer.get(i) == NEW_LINE || buffer.get(i) == CARRIAGE_RETURN;
+    }
+
+    private IOException malformed(int i) {
+      return new IOException(String.format("Malformed edge at byte %d.", start + i));
+    }
+
+    private int skipLine(MappedByteBuffer buffer, int i, int limit) {
+      while (i < limit && buffer.get(i) != NEW_LINE) {
+        i++;
+      }
+      return i + 1;
+    }
+  }
+}
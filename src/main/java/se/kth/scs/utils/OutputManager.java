@@ -122,7 +122,11 @@ public class OutputManager {
     sb.append("file:\t").append(settings.file).append(newLine);
     sb.append("Restreaming:\t").append(settings.rs).append(newLine);
     sb.append("window:\t").append(settings.window).append(newLine);
-    sb.append("partitions update frequency:\t").append(settings.frequency).append(newLine);
+    if (settings.drift > 0) {
+      sb.append("partitions update drift:\t").append(settings.drift).append(newLine);
+    } else {
+      sb.append("partitions update frequency:\t").append(settings.frequency).append(newLine);
+    }
     sb.append("partitions:\t").append(settings.k).append(newLine);
     sb.append("tasks(threads):\t").append(settings.tasks).append(newLine);
     sb.append("lambda:\t").append(settings.lambda).append(newLine);
@@ -136,8 +140,33 @@ public class OutputManager {
     }
     sb.append("output:\t").append(settings.output).append(newLine);
     sb.append("append to output:\t").append(settings.append).append(newLine);
+    sb.append("reader threads:\t").append(settings.readers).append(newLine);
     sb.append("shuffle input:\t").append(settings.shuffle).append(newLine);
     sb.append("compute exact degree:\t").append(settings.exactDegree).append(newLine);
+    sb.append("streaming:\t").append(settings.streaming).append(newLine);
+    sb.append("pipeline depth:\t").append(settings.pipeline).append(newLine);
+    if (settings.vertices > 0) {
+      sb.append("expected vertices:\t").append(settings.vertices).append(newLine);
+    }
+    if (settings.maxWindow > 0) {
+      sb.append("adaptive window:\t").append(settings.minWindow).append('-').append(settings.maxWindow).append(newLine);
+      sb.append("max conflict rate:\t").append(settings.conflicts).append(newLine);
+    }
+    if (settings.writeBehind > 0) {
+      sb.append("write-behind vertices:\t").append(settings.writeBehind).append(newLine);
+      sb.append("staleness (ms):\t").append(settings.staleness).append(newLine);
+    }
+    if (settings.cache > 0) {
+      sb.append("vertex cache:\t").append(settings.cache).append(' ').append(settings.cachePolicy).append(newLine);
+      sb.append("cache staleness (windows):\t").append(settings.cacheStaleness).append(newLine);
+    }
+    if (settings.compact) {
+      sb.append("compact encoding:\ttrue").append(newLine);
+    }
+    if (settings.edgeOutput != null) {
+      sb.append("edge output:\t").append(settings.edgeOutput).append(newLine);
+      sb.append("edge format:\t").append(settings.edgeFormat).append(newLine);
+    }
     System.out.println(sb.toString());
   }
 }
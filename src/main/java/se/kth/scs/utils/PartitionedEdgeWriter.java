@@ -0,0 +1,171 @@
+package se.kth.scs.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Pattern;
+import se.kth.scs.partitioning.Edge;
+
+/**
+ * Writes the edges that a subpartitioner assigns to the partitions. Every
+ * subpartitioner has its own writer with one segment file per partition, named
+ * partition-(partition)-(subpartitioner), so the writers never share a file.
+ * The edges go through a small direct buffer per partition to a file channel,
+ * and nothing else is kept in memory.
+ *
+ * The segments of a previous run are removed with prepare before the writers
+ * are created, so a run with fewer subpartitioners or partitions does not
+ * leave stale segments next to its own.
+ *
+ * In the text format every line is "src dst". In the binary format every edge
+ * is a pair of big-endian ints, without any header.
+ *
+ * @author Hooman
+ */
+public class PartitionedEdgeWriter implements Closeable {
+
+  public static final String TEXT = "text";
+  public static final String BINARY = "binary";
+  // The buffers of a writer share this budget, within the bounds below.
+  private static final int BUFFERS_BUDGET = 1 << 22;
+  private static final int MIN_BUFFER_SIZE = 1 << 12;
+  private static final int MAX_BUFFER_SIZE = 1 << 16;
+  private static final int MAX_EDGE_SIZE = 24; // Two ints as text, a space and a new line.
+
+  private final String dir;
+  private final int task;
+  private final boolean binary;
+  private final int bufferSize;
+  private final FileChannel[] channels;
+  private final ByteBuffer[] buffers;
+  private final byte[] digits = new byte[11];
+  private static final Pattern SEGMENT = Pattern.compile("partition-\\d+-\\d+\\.(txt|bin)");
+
+  /**
+   * @param dir Output directory, that is created if it does not exist.
+   * @param task Index of the subpartitioner.
+   * @param k Number of partitions.
+   * @param format text or binary.
+   */
+  public PartitionedEdgeWriter(String dir, int task, int k, String format) {
+    this.dir = dir;
+    this.task = task;
+    this.binary = format.equalsIgnoreCase(BINARY);
+    this.bufferSize = Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, BUFFERS_BUDGET / Math.max(1, k)));
+    this.channels = new FileChannel[k];
+    this.buffers = new ByteBuffer[k];
+    new File(dir).mkdirs();
+  }
+
+  /**
+   * Creates the output directory, or removes the segments that are already
+   * in it. The other files are kept.
+   *
+   * @param dir
+   * @throws IOException if a segment can not be removed.
+   */
+  public static void prepare(String dir) throws IOException {
+    File d = new File(dir);
+    if (!d.isDirectory() && !d.mkdirs()) {
+      throw new IOException(String.format("Can not create the edge output directory %s.", dir));
+    }
+    File[] files = d.listFiles();
+    if (files == null) {
+      throw new IOException(String.format("Can not list the edge output directory %s.", dir));
+    }
+    for (File f : files) {
+      if (f.isFile() && SEGMENT.matcher(f.getName()).matches() && !f.delete()) {
+        throw new IOException(String.format("Can not remove the old segment %s.", f));
+      }
+    }
+  }
+
+  /**
+   * @param dir
+   * @param partition
+   * @param task
+   * @param format
+   * @return the file of the edges of a subpartitioner in a partition.
+   */
+  public static File segment(String dir, int partition, int task, String format) {
+    String extension = format.equalsIgnoreCase(BINARY) ? "bin" : "txt";
+    return new File(dir, String.format("partition-%d-%d.%s", partition, task, extension));
+  }
+
+  /**
+   * Writes a packed edge to the segment of a partition.
+   *
+   * @param partition
+   * @param edge
+   * @throws IOException
+   */
+  public void write(int partition, long edge) throws IOException {
+    ByteBuffer b = buffers[partition];
+    if (b == null) {
+      b = open(partition);
+    } else if (b.remaining() < MAX_EDGE_SIZE) {
+      flush(partition);
+    }
+    if (binary) {
+      b.putInt(Edge.src(edge));
+      b.putInt(Edge.dst(edge));
+    } else {
+      putAscii(b, Edge.src(edge));
+      b.put((byte) ' ');
+      putAscii(b, Edge.dst(edge));
+      b.put((byte) '\n');
+    }
+  }
+
+  private ByteBuffer open(int partition) throws IOException {
+    File f = segment(dir, partition, task, binary ? BINARY : TEXT);
+    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    raf.setLength(0);
+    channels[partition] = raf.getChannel();
+    buffers[partition] = ByteBuffer.allocateDirect(bufferSize);
+    return buffers[partition];
+  }
+
+  private void putAscii(ByteBuffer b, int n) {
+    long v = n;
+    if (v < 0) {
+      b.put((byte) '-');
+      v = -v;
+    }
+    int i = digits.length;
+    do {
+      digits[--i] = (byte) ('0' + v % 10);
+      v /= 10;
+    } while (v > 0);
+    b.put(digits, i, digits.length - i);
+  }
+
+  private void flush(int partition) throws IOException {
+    ByteBuffer b = buffers[partition];
+    b.flip();
+    while (b.hasRemaining()) {
+      channels[partition].write(b);
+    }
+    b.clear();
+  }
+
+  /**
+   * Writes the rest of the buffers and closes the files.
+   *
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    for (int p = 0; p < channels.length; p++) {
+      if (channels[p] != null) {
+        flush(p);
+        channels[p].close();
+        channels[p] = null;
+        buffers[p] = null;
+      }
+    }
+  }
+}
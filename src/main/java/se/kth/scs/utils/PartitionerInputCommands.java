@@ -3,6 +3,7 @@ package se.kth.scs.utils;
 import com.beust.jcommander.IParameterValidator;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import se.kth.scs.partitioning.hovercut.VertexCache;
 
 /**
  * This class provides all the commands available to user to run HoVerCut partitioner.
@@ -13,6 +14,10 @@ public class PartitionerInputCommands {
 
   public final static String HDRF = "hdrf";
   public final static String GREEDY = "greedy";
+  public final static String ADWISE = "adwise";
+  public final static String DBH = "dbh";
+  public final static String GRID = "grid";
+  public final static String HASH = "hash";
   public final static String IN_MEMORY = "memory";
   public final static String MYSQL = "mysql";
   public final static String REMOTE = "remote";
@@ -20,7 +25,7 @@ public class PartitionerInputCommands {
   @Parameter(names = {"-file", "-f"}, description = "Directoy of the graph file.", required = true)
   public String file;
   
-  @Parameter(names = {"-a"}, description = "Algorithm [hdrf, greedy].", required = false)
+  @Parameter(names = {"-a"}, description = "Algorithm [hdrf, greedy, adwise, dbh, grid, hash].", required = false)
   public String algorithm = HDRF;
   
   @Parameter(names = {"-restream", "-rs"}, description = "Number of restreaming.", required = false)
@@ -32,6 +37,9 @@ public class PartitionerInputCommands {
   @Parameter(names = {"-puf"}, description = "Partitions update frequency comparing to the window size.")
   public int partitionsUpdateFrequency = 1;
 
+  @Parameter(names = {"-drift"}, description = "Read the partition sizes when the estimated edges of the other subpartitioners per partition exceed this fraction of the spread of the sizes, instead of -puf. Zero keeps -puf.")
+  public double drift = 0;
+
   @Parameter(names = {"-tasks", "-t"}, description = "Number of subpartitioners (threads).", required = true)
   public int nTasks;
 
@@ -47,7 +55,7 @@ public class PartitionerInputCommands {
   @Parameter(names = {"-storage", "-s"}, description = "State storage type.", validateWith = StateStorageValidator.class, required = true)
   public String storage;
 
-  @Parameter(names = {"-db"}, description = "Database URL or remote storage ip:port.")
+  @Parameter(names = {"-db"}, description = "Database URL or remote storage ip:port. The state is sharded over several remote storages with ip:port,ip:port,...")
   public String dbUrl;
 
   @Parameter(names = {"-user"}, description = "Database user.")
@@ -65,15 +73,80 @@ public class PartitionerInputCommands {
   @Parameter(names = {"-d"}, description = "Delimiter. The default value is a space.")
   public String delimiter = " ";
 
+  @Parameter(names = {"-readers"}, description = "Number of threads to parse the input file. More than one memory-maps the file and parses it in parallel.")
+  public int readers = 1;
+
   @Parameter(names = {"-append"}, description = "Append to the output file.", arity = 1)
   public boolean append = true;
 
   @Parameter(names = {"-shuffle"}, description = "Shuffle the input edges randomly.", arity = 1)
   public boolean shuffle = true;
 
+  @Parameter(names = {"-stream"}, description = "Partition the edges while they are read, without loading the graph in memory.", arity = 1)
+  public boolean streaming = false;
+
+  @Parameter(names = {"-vertices"}, description = "Expected number of vertices, to size the in-memory state when the graph is not loaded before partitioning, as with -stream. Zero uses a default size.")
+  public int vertices = 0;
+
+  @Parameter(names = {"-pipeline"}, description = "Number of windows of a subpartitioner whose state is read ahead, while the current window is allocated. One disables prefetching.")
+  public int pipeline = 1;
+
+  @Parameter(names = {"-wmax"}, description = "Largest window size of a subpartitioner that adapts its window at runtime. Zero keeps the window size fixed.")
+  public int maxWindow = 0;
+
+  @Parameter(names = {"-wmin"}, description = "Smallest window size of a subpartitioner that adapts its window at runtime.")
+  public int minWindow = 1;
+
+  @Parameter(names = {"-conflicts"}, description = "Target fraction of the vertices of consecutive windows that are changed by other subpartitioners in between. An adaptive window shrinks above it.")
+  public double conflicts = 0.05;
+
+  @Parameter(names = {"-writebehind"}, description = "Number of vertices whose changes a subpartitioner buffers across windows before writing them. Zero writes them after every window.")
+  public int writeBehind = 0;
+
+  @Parameter(names = {"-staleness"}, description = "Milliseconds that a buffered vertex change can wait before it is written.")
+  public long staleness = 100;
+
+  @Parameter(names = {"-cache"}, description = "Number of vertices that a subpartitioner caches instead of reading them from the state. Zero disables the cache.")
+  public int cache = 0;
+
+  @Parameter(names = {"-cachestaleness"}, description = "Number of windows after which a cached vertex is read again.")
+  public int cacheStaleness = 8;
+
+  @Parameter(names = {"-cachepolicy"}, description = "Eviction policy of the vertex cache [lru, frequency].", validateWith = CachePolicyValidator.class)
+  public String cachePolicy = VertexCache.FREQUENCY;
+
+  @Parameter(names = {"-compact"}, description = "Encode the vertices compactly on the wire to the remote storage. The storage must be of the same version.", arity = 1)
+  public boolean compact = false;
+
+  @Parameter(names = {"-edgeoutput"}, description = "Directory to write the edges of each partition. Nothing is written if it is not given.")
+  public String edgeOutput = null;
+
+  @Parameter(names = {"-edgeformat"}, description = "Format of the written edges [text, binary].", validateWith = EdgeFormatValidator.class)
+  public String edgeFormat = PartitionedEdgeWriter.TEXT;
+
   @Parameter(names = {"-ed"}, description = "Compute the exact degree of vertices before partitioning the graph.", arity = 1)
   public boolean exactDegree = false;
 
+  public static class EdgeFormatValidator implements IParameterValidator {
+
+    @Override
+    public void validate(String name, String value) throws ParameterException {
+      if (!value.equalsIgnoreCase(PartitionedEdgeWriter.TEXT) && !value.equalsIgnoreCase(PartitionedEdgeWriter.BINARY)) {
+        throw new ParameterException(String.format("Edge format %s is not supported!", value));
+      }
+    }
+  }
+
+  public static class CachePolicyValidator implements IParameterValidator {
+
+    @Override
+    public void validate(String name, String value) throws ParameterException {
+      if (!value.equalsIgnoreCase(VertexCache.LRU) && !value.equalsIgnoreCase(VertexCache.FREQUENCY)) {
+        throw new ParameterException(String.format("Cache policy %s is not supported!", value));
+      }
+    }
+  }
+
   public static class StateStorageValidator implements IParameterValidator {
 
     @Override
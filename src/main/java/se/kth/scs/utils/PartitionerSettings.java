@@ -9,6 +9,7 @@ public class PartitionerSettings {
   public String file;
   public String algorithm;
   public String delimiter;
+  public int readers;
   public int rs;
   public int window;
   public int frequency;
@@ -25,11 +26,27 @@ public class PartitionerSettings {
   public boolean append;
   public boolean shuffle;
   public boolean exactDegree;
+  public boolean streaming;
+  public int pipeline;
+  public int minWindow;
+  public int maxWindow;
+  public double conflicts;
+  public double drift;
+  public int writeBehind;
+  public long staleness;
+  public int cache;
+  public int cacheStaleness;
+  public String cachePolicy;
+  public boolean compact;
+  public int vertices;
+  public String edgeOutput;
+  public String edgeFormat;
 
   public void setSettings(PartitionerSettings settings) {
     file = settings.file;
     algorithm = settings.algorithm;
     delimiter = settings.delimiter;
+    readers = settings.readers;
     rs = settings.rs;
     window = settings.window;
     frequency = settings.frequency;
@@ -46,6 +63,21 @@ public class PartitionerSettings {
     append = settings.append;
     shuffle = settings.shuffle;
     exactDegree = settings.exactDegree;
+    streaming = settings.streaming;
+    pipeline = settings.pipeline;
+    minWindow = settings.minWindow;
+    maxWindow = settings.maxWindow;
+    conflicts = settings.conflicts;
+    drift = settings.drift;
+    writeBehind = settings.writeBehind;
+    staleness = settings.staleness;
+    cache = settings.cache;
+    cacheStaleness = settings.cacheStaleness;
+    cachePolicy = settings.cachePolicy;
+    compact = settings.compact;
+    vertices = settings.vertices;
+    edgeOutput = settings.edgeOutput;
+    edgeFormat = settings.edgeFormat;
     window = settings.window;
     tasks = settings.tasks;
   }
@@ -64,9 +96,25 @@ public class PartitionerSettings {
     append = commands.append;
     reset = commands.reset;
     delimiter = commands.delimiter;
+    readers = commands.readers;
     frequency = commands.partitionsUpdateFrequency;
     shuffle = commands.shuffle;
     exactDegree = commands.exactDegree;
+    streaming = commands.streaming;
+    pipeline = commands.pipeline;
+    minWindow = commands.minWindow;
+    maxWindow = commands.maxWindow;
+    conflicts = commands.conflicts;
+    drift = commands.drift;
+    writeBehind = commands.writeBehind;
+    staleness = commands.staleness;
+    cache = commands.cache;
+    cacheStaleness = commands.cacheStaleness;
+    cachePolicy = commands.cachePolicy;
+    compact = commands.compact;
+    vertices = commands.vertices;
+    edgeOutput = commands.edgeOutput;
+    edgeFormat = commands.edgeFormat;
     rs = commands.rs;
     window = commands.window;
     tasks = commands.nTasks;
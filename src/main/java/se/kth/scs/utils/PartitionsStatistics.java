@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Map;
 import se.kth.scs.partitioning.Partition;
 import se.kth.scs.partitioning.PartitionState;
+import se.kth.scs.partitioning.ReplicaSet;
 import se.kth.scs.partitioning.Vertex;
 
 /**
@@ -18,7 +19,7 @@ public class PartitionsStatistics {
   private final int maxEdgeCardinality;
   private final float loadRelativeStandardDeviation;
   private final int nVertices;
-  private final int nEdges;
+  private final long nEdges;
   private final int[] nEdgePartitions;
   private final int[] nVertexPartitions;
   private final Map<Integer, Vertex> vertices;
@@ -27,10 +28,9 @@ public class PartitionsStatistics {
    * Eagerly calculates some metrics about a list of partitions.
    *
    * @param state
-   * @param expectedVertices
    */
-  public PartitionsStatistics(PartitionState state, int expectedVertices) {
-    vertices = state.getAllVertices(expectedVertices);
+  public PartitionsStatistics(PartitionState state) {
+    vertices = state.getAllVertices();
     List<Partition> partitions = state.getAllPartitions();
     state.releaseTaskResources();
     nEdgePartitions = new int[partitions.size()];
@@ -39,13 +39,10 @@ public class PartitionsStatistics {
     int totalReplicas = 0;
     nVertices = vertices.size();
     for (Vertex v : vertices.values()) {
-      int ps = v.getPartitions();
-      for (Partition p : partitions) {
-        if ((ps & 1) == 1) {
-          totalReplicas++;
-          nVertexPartitions[p.getId()] += 1;
-        }
-        ps = ps >> 1;
+      ReplicaSet ps = v.getPartitions();
+      for (int p = ps.nextSetBit(0); p >= 0 && p < nVertexPartitions.length; p = ps.nextSetBit(p + 1)) {
+        totalReplicas++;
+        nVertexPartitions[p] += 1;
       }
     }
     avgReplicationFactor = calculateReplicationFactor(totalReplicas, nVertices);
@@ -54,7 +51,7 @@ public class PartitionsStatistics {
     int maxV = 0;
     int maxE = 0;
     int i = 0;
-    int eSize = 0;
+    long eSize = 0;
     for (Partition p : partitions) {
       nEdgePartitions[i] = p.getESize();
       eSize += p.getESize();
@@ -88,7 +85,7 @@ public class PartitionsStatistics {
   }
 
   private float calculateRelativeStandardDeviation(List<Partition> partitions) {
-    int sum = 0;
+    long sum = 0;
     int n = partitions.size();
     for (Partition p : partitions) {
       sum += p.getESize();
@@ -144,7 +141,7 @@ public class PartitionsStatistics {
   /**
    * @return the nEdges
    */
-  public int getNEdges() {
+  public long getNEdges() {
     return nEdges;
   }
 
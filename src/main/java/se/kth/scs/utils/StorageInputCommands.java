@@ -3,6 +3,7 @@ package se.kth.scs.utils;
 import com.beust.jcommander.IParameterValidator;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import se.kth.scs.remote.ServerStorage;
 
 /**
  * Available commands to run the remote state storage.
@@ -17,6 +18,15 @@ public class StorageInputCommands {
   @Parameter(names = {"-a"}, description = "Storage ip:port.", validateWith = AddressValidator.class, required = true)
   public String address;
 
+  @Parameter(names = {"-vertices"}, description = "Expected number of vertices on this storage, to size its vertex table.")
+  public int vertices = ServerStorage.DEFAULT_EXPECTED_VERTICES;
+
+  @Parameter(names = {"-nio"}, description = "Serve the clients with non-blocking selector threads, instead of a thread per client.", arity = 1)
+  public boolean nio = false;
+
+  @Parameter(names = {"-selectors"}, description = "Number of selector threads in the non-blocking mode.")
+  public int selectors = 2;
+
   public static class AddressValidator implements IParameterValidator {
 
     @Override
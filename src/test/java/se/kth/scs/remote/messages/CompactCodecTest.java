@@ -0,0 +1,149 @@
+package se.kth.scs.remote.messages;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import se.kth.scs.partitioning.ReplicaSet;
+import se.kth.scs.partitioning.Vertex;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Round trips of the compact encoding, with a mask (k <= 16) and with a list
+ * of partitions (k > 16).
+ *
+ * @author Hooman
+ */
+public class CompactCodecTest {
+
+  private static final int[] KS = {1, 4, 16, 17, 64, 65, 300};
+
+  @Test
+  public void idsAreSortedAndDecoded() {
+    CompactCodec codec = new CompactCodec(8);
+    int[] ids = {42, -7, Integer.MAX_VALUE, 0, Integer.MIN_VALUE, 43, 1 << 20};
+    int[] sorted = ids.clone();
+    Arrays.sort(sorted);
+    ByteBuffer encoded = codec.encodeIds(ids);
+    assertArrayEquals(sorted, codec.decodeIds(encoded));
+    assertFalse(encoded.hasRemaining());
+  }
+
+  @Test
+  public void emptyLists() {
+    CompactCodec codec = new CompactCodec(32);
+    assertArrayEquals(new int[0], codec.decodeIds(codec.encodeIds(new int[0])));
+    assertArrayEquals(new int[0], codec.decodeVertices(codec.encodeVertices(new int[0])));
+    assertArrayEquals(new int[0], codec.decodeVertices(codec.encodeVertices(new LinkedList<Vertex>())));
+  }
+
+  @Test
+  public void unsortedRawVerticesAreSortedAndDecoded() {
+    for (int k : KS) {
+      Random random = new Random(k);
+      int nWords = ReplicaSet.words(k);
+      int stride = Serializer.vertexSize(nWords);
+      int[] ids = distinctIds(random, 300);
+      int[] sorted = ids.clone();
+      Arrays.sort(sorted);
+      int[] vertices = new int[ids.length * stride];
+      int[] expected = new int[ids.length * stride];
+      for (int i = 0; i < ids.length; i++) {
+        ReplicaSet replicas = randomReplicas(random, k);
+        int degree = random.nextInt();
+        put(vertices, i * stride, ids[i], degree, replicas, nWords);
+        put(expected, Arrays.binarySearch(sorted, ids[i]) * stride, ids[i], degree, replicas, nWords);
+      }
+      CompactCodec codec = new CompactCodec(k);
+      ByteBuffer encoded = codec.encodeVertices(vertices);
+      assertArrayEquals("k=" + k, expected, codec.decodeVertices(encoded));
+      assertFalse(encoded.hasRemaining());
+    }
+  }
+
+  @Test
+  public void responseVerticesAreDecodedInTheirOrder() {
+    for (int k : KS) {
+      Random random = new Random(-k);
+      int nWords = ReplicaSet.words(k);
+      int stride = Serializer.vertexSize(nWords);
+      int[] ids = distinctIds(random, 300);
+      LinkedList<Vertex> vertices = new LinkedList<>();
+      int[] expected = new int[ids.length * stride];
+      for (int i = 0; i < ids.length; i++) {
+        ReplicaSet replicas = randomReplicas(random, k);
+        Vertex v = new Vertex(ids[i], replicas);
+        v.setpDegree(random.nextInt(1000));
+        vertices.add(v);
+        put(expected, i * stride, ids[i], v.getpDegree(), replicas, nWords);
+      }
+      CompactCodec codec = new CompactCodec(k);
+      ByteBuffer encoded = codec.encodeVertices(vertices);
+      assertArrayEquals("k=" + k, expected, codec.decodeVertices(encoded));
+      assertFalse(encoded.hasRemaining());
+    }
+  }
+
+  @Test
+  public void vertexInAllPartitions() {
+    int k = 300;
+    ReplicaSet all = new ReplicaSet();
+    for (int p = 0; p < k; p++) {
+      all.add(p);
+    }
+    Vertex v = new Vertex(-1, all);
+    v.setpDegree(Integer.MAX_VALUE);
+    LinkedList<Vertex> vertices = new LinkedList<>();
+    vertices.add(v);
+    int nWords = ReplicaSet.words(k);
+    int[] expected = new int[Serializer.vertexSize(nWords)];
+    put(expected, 0, -1, Integer.MAX_VALUE, all, nWords);
+    CompactCodec codec = new CompactCodec(k);
+    assertArrayEquals(expected, codec.decodeVertices(codec.encodeVertices(vertices)));
+  }
+
+  @Test
+  public void windowIdsTakeLessThanFourBytes() {
+    CompactCodec codec = new CompactCodec(8);
+    int[] ids = new int[1000];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = 1000000 + 3 * i;
+    }
+    assertEquals(2 + 3 + (ids.length - 1), codec.encodeIds(ids).remaining());
+  }
+
+  /**
+   * @return distinct IDs, negative and positive, in a random order.
+   */
+  private static int[] distinctIds(Random random, int n) {
+    Set<Integer> ids = new LinkedHashSet<>();
+    while (ids.size() < n) {
+      ids.add(random.nextInt());
+    }
+    int[] array = new int[n];
+    int i = 0;
+    for (int id : ids) {
+      array[i++] = id;
+    }
+    return array;
+  }
+
+  private static ReplicaSet randomReplicas(Random random, int k) {
+    ReplicaSet replicas = new ReplicaSet();
+    for (int n = random.nextInt(Math.min(k, 8) + 1); n > 0; n--) {
+      replicas.add(random.nextInt(k));
+    }
+    return replicas;
+  }
+
+  private static void put(int[] vertices, int offset, int id, int degree, ReplicaSet replicas, int nWords) {
+    vertices[offset] = id;
+    vertices[offset + 1] = degree;
+    Serializer.putReplicas(vertices, offset + 2, replicas, nWords);
+  }
+}